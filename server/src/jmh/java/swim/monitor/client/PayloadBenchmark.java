@@ -0,0 +1,97 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import oshi.SystemInfo;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Cost of building the payloads ProcessMonitor sends each pulse, from the
+ * local process table and from synthetic data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+  private static final int TOP_PROCESS_COUNT = 30;
+
+  private final SyntheticMachine machine = new SyntheticMachine(1L, TOP_PROCESS_COUNT);
+  private final DeltaEncoder deltaEncoder = new DeltaEncoder()
+          .relative("available", 0.01)
+          .absolute("average_system_load", 1.0)
+          .absolute("uptime", 60000.0)
+          .absolute("cpu_load", 0.005)
+          .relative("rss", 0.01);
+  private ProcessCollector procCollector;
+  private ProcessCollector oshiCollector;
+  private long timestamp;
+
+  @Setup
+  public void setup() {
+    this.procCollector = LinuxProcessCollector.isSupported() ? new LinuxProcessCollector(TOP_PROCESS_COUNT) : null;
+    this.oshiCollector = new OshiProcessCollector(new SystemInfo(), TOP_PROCESS_COUNT);
+    this.timestamp = System.currentTimeMillis();
+    this.deltaEncoder.processesKeyframe(this.machine.processes(this.timestamp));
+    this.deltaEncoder.usageKeyframe(this.machine.usage(this.timestamp));
+  }
+
+  @Benchmark
+  public Record collectProc() {
+    // Falls back to an empty payload where /proc isn't available
+    return this.procCollector != null ? this.procCollector.collect(this.timestamp += 5000L) : Record.empty();
+  }
+
+  @Benchmark
+  public Record collectOshi() {
+    return this.oshiCollector.collect(this.timestamp += 5000L);
+  }
+
+  @Benchmark
+  public Value syntheticUsage() {
+    return this.machine.usage(this.timestamp += 5000L);
+  }
+
+  @Benchmark
+  public Value syntheticProcesses() {
+    return this.machine.processes(this.timestamp += 5000L);
+  }
+
+  @Benchmark
+  public Value processesDelta() {
+    final long timestamp = this.timestamp += 5000L;
+    return this.deltaEncoder.processesDelta(this.machine.processes(timestamp), timestamp);
+  }
+
+  @Benchmark
+  public Value usageDelta() {
+    return this.deltaEncoder.usageDelta(this.machine.usage(this.timestamp += 5000L));
+  }
+}
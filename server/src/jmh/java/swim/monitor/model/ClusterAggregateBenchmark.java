@@ -0,0 +1,94 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import swim.monitor.client.SyntheticMachine;
+import swim.structure.Record;
+import swim.structure.Text;
+import swim.structure.Value;
+
+/**
+ * Cost of a cluster status update, incrementally and by rescanning every
+ * machine as ClusterAgent used to.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusterAggregateBenchmark {
+
+  @Param({"10", "1000", "10000"})
+  public int machineCount;
+
+  private Value[] keys;
+  // Two statuses per machine, alternated so every update changes the totals
+  private Value[][] statuses;
+  private ClusterAggregate aggregate;
+  private Value clusterStatus = Value.absent();
+  private int next;
+  private int flip = 1;
+
+  @Setup
+  public void setup() {
+    final long timestamp = System.currentTimeMillis();
+    this.keys = new Value[this.machineCount];
+    this.statuses = new Value[2][this.machineCount];
+    this.aggregate = new ClusterAggregate();
+    for (int i = 0; i < this.machineCount; i++) {
+      final SyntheticMachine machine = new SyntheticMachine(i, 30);
+      this.keys[i] = Text.from("/machine/load-" + i);
+      for (int j = 0; j < 2; j++) {
+        final Value status = Record.create(3).slot("timestamp", timestamp).slot("latency", 10L + j).slot("updating", true);
+        this.statuses[j][i] = StatusComputer.computeSeverityFromStatus(
+                StatusComputer.computeStatusFromUsage(status, machine.usage(timestamp)));
+      }
+      this.aggregate.update(this.keys[i], this.statuses[0][i]);
+    }
+  }
+
+  @Benchmark
+  public Value updateMachine() {
+    final int i = this.next;
+    this.aggregate.update(this.keys[i], this.statuses[this.flip][i]);
+    if (++this.next == this.machineCount) {
+      this.next = 0;
+      this.flip ^= 1;
+    }
+    return this.aggregate.toStatus(this.clusterStatus);
+  }
+
+  @Benchmark
+  public Value recomputeAllMachines() {
+    final ClusterAggregate aggregate = new ClusterAggregate();
+    for (int i = 0; i < this.machineCount; i++) {
+      aggregate.update(this.keys[i], this.statuses[0][i]);
+    }
+    return aggregate.toStatus(this.clusterStatus);
+  }
+}
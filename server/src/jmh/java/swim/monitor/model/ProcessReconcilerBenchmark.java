@@ -0,0 +1,73 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import swim.monitor.client.SyntheticMachine;
+import swim.structure.Value;
+
+/**
+ * Cost of reconciling a machine's processes against an addProcess command,
+ * with a plain map standing in for the processes lane.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessReconcilerBenchmark {
+
+  @Param({"30", "300"})
+  public int processCount;
+
+  private final ProcessReconciler reconciler = new ProcessReconciler(0.005, 0.01);
+  private final HashMap<Integer, Value> processes = new HashMap<>();
+  private Value[] updates;
+  private int next;
+
+  @Setup
+  public void setup() {
+    final SyntheticMachine machine = new SyntheticMachine(1L, this.processCount);
+    final long timestamp = System.currentTimeMillis();
+    this.updates = new Value[16];
+    for (int i = 0; i < this.updates.length; i++) {
+      this.updates[i] = machine.processes(timestamp + i * 5000L);
+    }
+    this.reconciler.reconcile(this.processes, this.updates[0]);
+  }
+
+  @Benchmark
+  public int reconcile() {
+    return this.reconciler.reconcile(this.processes, this.updates[this.next++ & (this.updates.length - 1)]);
+  }
+
+  @Benchmark
+  public int reconcileUnchanged() {
+    return this.reconciler.reconcile(this.processes, this.updates[0]);
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import swim.monitor.client.SyntheticMachine;
+import swim.structure.Record;
+import swim.structure.Value;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatusComputerBenchmark {
+
+  private Value usage;
+  private Value status;
+  private final MachineStatus machineStatus = new MachineStatus();
+
+  @Setup
+  public void setup() {
+    final long timestamp = System.currentTimeMillis();
+    this.usage = new SyntheticMachine(1L, 30).usage(timestamp);
+    this.status = StatusComputer.computeStatusFromUsage(
+            Record.create(3).slot("timestamp", timestamp).slot("latency", 12L).slot("updating", true), this.usage);
+    this.machineStatus.readFrom(this.status);
+  }
+
+  @Benchmark
+  public MachineStatus applyUsage() {
+    this.machineStatus.applyUsage(this.usage);
+    return this.machineStatus;
+  }
+
+  @Benchmark
+  public Value applyUsageAndPublish() {
+    this.machineStatus.applyUsage(this.usage);
+    return this.machineStatus.toValue();
+  }
+
+  @Benchmark
+  public Value computeStatusFromUsage() {
+    return StatusComputer.computeStatusFromUsage(this.status, this.usage);
+  }
+
+  @Benchmark
+  public Value computeSeverityFromStatus() {
+    return StatusComputer.computeSeverityFromStatus(this.status);
+  }
+}
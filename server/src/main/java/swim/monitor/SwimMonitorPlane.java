@@ -14,12 +14,22 @@
 
 package swim.monitor;
 
+import java.io.IOException;
 import swim.api.plane.AbstractPlane;
 import swim.kernel.Kernel;
+import swim.monitor.store.AgentStore;
 import swim.server.ServerLoader;
+import swim.structure.Value;
+import swim.uri.Uri;
+import swim.uri.UriPattern;
 
 public class SwimMonitorPlane extends AbstractPlane {
 
+  private static final UriPattern MACHINE_URI_PATTERN = UriPattern.parse("/machine/:id");
+  private static final Uri RESTORE_LANE_URI = Uri.parse("restore");
+  private static final Uri SELF_NODE_URI = Uri.parse("/monitor/self");
+  private static final Uri WAKE_LANE_URI = Uri.parse("wake");
+
   public static void main(String[] args) {
     final Kernel kernel = ServerLoader.loadServer();
     kernel.getSpace("monitor");
@@ -28,4 +38,29 @@ public class SwimMonitorPlane extends AbstractPlane {
     kernel.start();
     kernel.run();
   }
-}
\ No newline at end of file
+
+  @Override
+  public void didStart() {
+    // The self agent's snapshots also keep the pressure hinted to clients up to date
+    command(SELF_NODE_URI, WAKE_LANE_URI, Value.absent());
+    // Agents start on first use, so wake every persisted machine that may still report;
+    // the stores of machines that went quiet long ago are deleted instead
+    final long now = System.currentTimeMillis();
+    try {
+      for (Uri nodeUri : AgentStore.nodeUris(MACHINE_URI_PATTERN)) {
+        final AgentStore store = AgentStore.open(nodeUri, e -> warn(nodeUri + ": store " + e), () -> { });
+        if (store == null) {
+          continue;
+        }
+        if (store.isRetained(now)) {
+          command(nodeUri, RESTORE_LANE_URI, Value.absent());
+        } else {
+          info(nodeUri + ": deleting expired store");
+          store.delete();
+        }
+      }
+    } catch (IOException e) {
+      warn("failed to list persisted machines: " + e);
+    }
+  }
+}
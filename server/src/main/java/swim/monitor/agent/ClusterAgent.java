@@ -14,143 +14,320 @@
 
 package swim.monitor.agent;
 
+import java.util.concurrent.atomic.LongAdder;
 import swim.api.SwimLane;
 import swim.api.agent.AbstractAgent;
 import swim.api.lane.CommandLane;
+import swim.api.lane.DemandMapLane;
 import swim.api.lane.JoinValueLane;
 import swim.api.lane.MapLane;
 import swim.api.lane.ValueLane;
+import swim.concurrent.TimerRef;
+import swim.monitor.model.ClusterAggregate;
+import swim.monitor.model.StatusHistoryBuffer;
+import swim.monitor.model.IoTotals;
+import swim.monitor.model.TopProcesses;
+import swim.monitor.store.AgentStore;
+import swim.monitor.util.MonitorMetrics;
 import swim.structure.Value;
 import swim.uri.Uri;
-
-import java.util.Set;
+import swim.uri.UriPattern;
 
 public class ClusterAgent extends AbstractAgent {
 
+  private static final UriPattern CLUSTER_URI_PATTERN = UriPattern.parse("/cluster/:id");
+  private static final UriPattern CLUSTER_SHARD_URI_PATTERN = UriPattern.parse("/cluster/:id/shard/:shard");
   private static final Uri STATUS_MACHINE_LANE_URI = Uri.parse("status");
-  private static final int STATUS_HISTORY_SIZE = 200;
+  private static final Uri PARTIAL_SHARD_LANE_URI = Uri.parse("partial");
+  private static final Uri TOP_PROCESSES_LANE_URI = Uri.parse("topProcesses");
+  private static final Uri IO_LANE_URI = Uri.parse("io");
+  private static final Uri ADD_SHARD_CLUSTER_LANE_URI = Uri.parse("addShard");
+
+  // Minimum delay between status publications; 0 publishes on every machine update
+  private static final long PUBLISH_INTERVAL = Long.parseLong(System.getProperty("cluster.publish.interval", "0"));
+
+  // Number of /cluster/:id/shard/:shard agents each cluster's machines are spread across
+  private static final int SHARD_COUNT = Integer.parseInt(System.getProperty("cluster.shards", "1"));
+
+  // Number of processes ranked by each metric in topProcesses, and the minimum delay between its publications
+  static final int TOP_PROCESSES_SIZE = Integer.parseInt(System.getProperty("cluster.top.size", "10"));
+  private static final long TOP_PROCESSES_INTERVAL = Long.parseLong(System.getProperty("cluster.top.interval", "1000"));
+  // Minimum delay between publications of the disk and network totals
+  private static final long IO_INTERVAL = Long.parseLong(System.getProperty("cluster.io.interval", "1000"));
+
+  private static final LongAdder ADD_MACHINE_COMMANDS = MonitorMetrics.commandCounter("cluster/addMachine");
+  private static final LongAdder ADD_SHARD_COMMANDS = MonitorMetrics.commandCounter("cluster/addShard");
+
+  // Delay before buffered store appends are written out
+  private static final long STORE_FLUSH_INTERVAL = Long.parseLong(System.getProperty("monitor.store.flush.interval", "1000"));
+
+  private final ClusterAggregate aggregate = new ClusterAggregate();
+  private final TopProcesses topProcessIndex = new TopProcesses(TOP_PROCESSES_SIZE);
+  private TimerRef topProcessesTimer;
+  private final IoTotals ioTotals = new IoTotals();
+  private TimerRef ioTimer;
+  private long lastTimestamp;
+  private TimerRef publishTimer;
+  private Uri parentUri;
+  // Only opened when monitor.store.dir is set
+  private AgentStore store;
+  private TimerRef storeFlushTimer;
+  private boolean restoring;
 
   // Status lane for Cluster Agent
   @SwimLane("status")
   ValueLane<Value> status = this.<Value>valueLane()
           .didSet((nv, ov) -> {
             final long timestamp = nv.get("timestamp").longValue(0L);
-            if (timestamp > 0L) {
-              this.statusHistory.put(timestamp, nv.removed("timestamp"));
+            // A restored status is already the last sample of the restored history
+            if (timestamp > 0L && !this.restoring) {
+              this.historyTiers.appendHistory(timestamp, nv);
             }
           });
 
+  // Samples live in primitive history columns; records are built only when a downlink syncs
   @SwimLane("statusHistory")
-  MapLane<Long, Value> statusHistory = this.<Long, Value>mapLane()
-          .didUpdate((k, nv, ov) -> trimHistory());
+  DemandMapLane<Long, Value> statusHistory = this.<Long, Value>demandMapLane()
+          .onSync(uplink -> this.historyTiers.history().timestamps())
+          .onCue((k, uplink) -> HistoryTiers.cueHistory(this.historyTiers.history().get(k)));
 
-  private void trimHistory() {
-    final int dropCount = this.statusHistory.size() - STATUS_HISTORY_SIZE;
-    if (dropCount > 0) {
-      this.statusHistory.drop(dropCount);
-    }
-  }
+  // Downsampled tiers of statusHistory, one min/max/avg entry per closed bucket
+  @SwimLane("statusHistory1m")
+  DemandMapLane<Long, Value> statusHistory1m = this.<Long, Value>demandMapLane()
+          .onSync(uplink -> this.historyTiers.syncTier(HistoryTiers.MINUTE))
+          .onCue((k, uplink) -> this.historyTiers.cueTier(HistoryTiers.MINUTE, k));
+
+  @SwimLane("statusHistory15m")
+  DemandMapLane<Long, Value> statusHistory15m = this.<Long, Value>demandMapLane()
+          .onSync(uplink -> this.historyTiers.syncTier(HistoryTiers.QUARTER_HOUR))
+          .onCue((k, uplink) -> this.historyTiers.cueTier(HistoryTiers.QUARTER_HOUR, k));
+
+  @SwimLane("statusHistory1h")
+  DemandMapLane<Long, Value> statusHistory1h = this.<Long, Value>demandMapLane()
+          .onSync(uplink -> this.historyTiers.syncTier(HistoryTiers.HOUR))
+          .onCue((k, uplink) -> this.historyTiers.cueTier(HistoryTiers.HOUR, k));
+
+  @SwimLane("queryHistory")
+  CommandLane<Value> queryHistory = this.<Value>commandLane()
+          .onCommand(v -> this.historyTiers.answerHistoryQuery(v));
+
+  // Downsampled ranges of history, keyed by the id of the query that asked for them
+  @SwimLane("historyQuery")
+  MapLane<String, Value> historyQuery = this.<String, Value>mapLane();
+
+  private final HistoryTiers historyTiers = new HistoryTiers(this, ClusterAggregate.HISTORY_SCHEMA, this.statusHistory,
+          this.statusHistory1m, this.statusHistory15m, this.statusHistory1h, this.historyQuery);
 
   @SwimLane("addMachine")
   CommandLane<Value> addMachine = this.<Value>commandLane()
-          .onCommand(v ->
-                  this.machines.downlink(v)
-                          .nodeUri(Uri.form().cast(v))
-                          .laneUri(STATUS_MACHINE_LANE_URI)
-                          .open());
+          .onCommand(v -> {
+            ADD_MACHINE_COMMANDS.increment();
+            if (this.machines.getDownlink(v) == null) {
+              MonitorMetrics.MEMBERS_JOINED.increment();
+            }
+            this.machines.downlink(v)
+                    .nodeUri(Uri.form().cast(v))
+                    .laneUri(STATUS_MACHINE_LANE_URI)
+                    .open();
+            this.memberTopProcesses.downlink(v)
+                    .nodeUri(Uri.form().cast(v))
+                    .laneUri(TOP_PROCESSES_LANE_URI)
+                    .open();
+            this.memberIo.downlink(v)
+                    .nodeUri(Uri.form().cast(v))
+                    .laneUri(IO_LANE_URI)
+                    .open();
+          });
+
+  @SwimLane("addShard")
+  CommandLane<Value> addShard = this.<Value>commandLane()
+          .onCommand(v -> {
+            ADD_SHARD_COMMANDS.increment();
+            if (this.shards.getDownlink(v) == null) {
+              MonitorMetrics.MEMBERS_JOINED.increment();
+            }
+            this.shards.downlink(v)
+                    .nodeUri(Uri.form().cast(v))
+                    .laneUri(PARTIAL_SHARD_LANE_URI)
+                    .open();
+            this.memberTopProcesses.downlink(v)
+                    .nodeUri(Uri.form().cast(v))
+                    .laneUri(TOP_PROCESSES_LANE_URI)
+                    .open();
+            this.memberIo.downlink(v)
+                    .nodeUri(Uri.form().cast(v))
+                    .laneUri(IO_LANE_URI)
+                    .open();
+          });
+
+  // Mergeable sums, counts and maxima of this cluster, read by a parent rollup
+  @SwimLane("partial")
+  ValueLane<Value> partial = this.<Value>valueLane();
+
+  @SwimLane("shards")
+  JoinValueLane<Value, Value> shards = this.<Value, Value>joinValueLane()
+          .didUpdate((k, nv, ov) -> {
+            updateLastTimestamp(nv);
+            this.aggregate.updatePartial(k, nv);
+            statusChanged();
+          })
+          .didRemove((k, ov) -> {
+            MonitorMetrics.MEMBERS_LEFT.increment();
+            this.aggregate.remove(k);
+            statusChanged();
+          });
 
   @SwimLane("machines")
   JoinValueLane<Value, Value> machines = this.<Value, Value>joinValueLane()
           .didUpdate((k, nv, ov) -> {
-            updateLastTimestampStatus(nv);
-            computeStatus();
-
+            updateLastTimestamp(nv);
             if (nv.get("disconnected").isDefined()) {
               this.machines.remove(k);
+              this.memberTopProcesses.remove(k);
+              this.memberIo.remove(k);
+            } else {
+              this.aggregate.update(k, nv);
+              statusChanged();
             }
+          })
+          .didRemove((k, ov) -> {
+            MonitorMetrics.MEMBERS_LEFT.increment();
+            this.aggregate.remove(k);
+            statusChanged();
           });
 
-  private void computeStatus() {
-
-    int machineCount = 0;
+  // Top processes of each machine, or of each shard of a sharded cluster
+  @SwimLane("memberTopProcesses")
+  JoinValueLane<Value, Value> memberTopProcesses = this.<Value, Value>joinValueLane()
+          .didUpdate((k, nv, ov) -> {
+            this.topProcessIndex.update(k, nv);
+            topProcessesChanged();
+          })
+          .didRemove((k, ov) -> {
+            this.topProcessIndex.remove(k);
+            topProcessesChanged();
+          });
 
-    long totalLatency = 0L;
-    int latencyCount  = 0;
+  // Hottest processes across the cluster, by cpu_load and by rss
+  @SwimLane("topProcesses")
+  ValueLane<Value> topProcesses = this.<Value>valueLane();
 
-    double totalSystemLoad = 0.0, maxSystemLoad = 0.0;
-    int systemLoadCount = 0;
+  private void topProcessesChanged() {
+    if (this.topProcessesTimer == null || !this.topProcessesTimer.isScheduled()) {
+      this.topProcessesTimer = setTimer(TOP_PROCESSES_INTERVAL, this::publishTopProcesses);
+      MonitorMetrics.TIMER_SCHEDULES.increment();
+    }
+  }
 
-    double avgCPUUsage = 0.0;
-    double clusterAvgMemoryUsage = 0.0;
+  private void publishTopProcesses() {
+    final Value top = this.topProcessIndex.toValue();
+    if (!top.equals(this.topProcesses.get())) {
+      this.topProcesses.set(top);
+    }
+  }
 
-    float totalMemoryUsage = 0.0f, maxMemoryUsage = 0.0f;
-    int memoryCount = 0;
+  // Disk and network totals of each machine, or of each shard of a sharded cluster
+  @SwimLane("memberIo")
+  JoinValueLane<Value, Value> memberIo = this.<Value, Value>joinValueLane()
+          .didUpdate((k, nv, ov) -> {
+            this.ioTotals.update(k, nv);
+            ioChanged();
+          })
+          .didRemove((k, ov) -> {
+            this.ioTotals.remove(k);
+            ioChanged();
+          });
 
-    int clusterProcessCount = 0;
+  // Disk and network throughput summed across the cluster
+  @SwimLane("io")
+  ValueLane<Value> io = this.<Value>valueLane();
 
-    final Set<Value> keys = this.machines.keySet();
-    for (Value key : keys) {
-      machineCount++;
-      final Value machineStatus = this.machines.get(key);
+  private void ioChanged() {
+    if (this.ioTimer == null || !this.ioTimer.isScheduled()) {
+      this.ioTimer = setTimer(IO_INTERVAL, () -> this.io.set(this.ioTotals.toValue(System.currentTimeMillis())));
+      MonitorMetrics.TIMER_SCHEDULES.increment();
+    }
+  }
 
-      if (machineStatus.get("latency").isDefined()){
-        latencyCount++;
-        totalLatency += machineStatus.get("latency").longValue(0L);
-      }
+  private void updateLastTimestamp(final Value update) {
+    final long timestamp = update.get("timestamp").longValue(0L);
+    if (timestamp > this.lastTimestamp) {
+      this.lastTimestamp = timestamp;
+    }
+  }
 
-      if (machineStatus.get("average_system_load").isDefined()) {
-        systemLoadCount++;
-        double systemLoad = machineStatus.get("average_system_load").doubleValue(0);
-        totalSystemLoad += systemLoad;
-        if (systemLoad > maxSystemLoad) {
-          maxSystemLoad = systemLoad;
-        }
-        avgCPUUsage = totalSystemLoad / systemLoadCount;
-      }
+  private void statusChanged() {
+    if (PUBLISH_INTERVAL <= 0L) {
+      publishStatus();
+    } else if (this.publishTimer == null || !this.publishTimer.isScheduled()) {
+      // A scheduled publish timer marks the cluster dirty; later updates fold into it
+      this.publishTimer = setTimer(PUBLISH_INTERVAL, this::publishStatus);
+      MonitorMetrics.TIMER_SCHEDULES.increment();
+    }
+  }
 
-      if (machineStatus.get("memory_usage").isDefined()) {
-        memoryCount++;
-        float memoryUsage = machineStatus.get("memory_usage").floatValue(0.0f);
-        totalMemoryUsage += memoryUsage;
-        if (memoryUsage > maxMemoryUsage) {
-          maxMemoryUsage = memoryUsage;
-        }
-      }
+  private void publishStatus() {
+    final long start = System.nanoTime();
+    Value status = this.aggregate.toStatus(this.status.get());
+    if (this.lastTimestamp > status.get("timestamp").longValue(0L)) {
+      status = status.updated("timestamp", this.lastTimestamp);
+    }
+    this.status.set(status);
+    if (this.parentUri != null) {
+      this.partial.set(this.aggregate.toPartial().updated("timestamp", this.lastTimestamp));
+    }
+    MonitorMetrics.CLUSTER_STATUS_TIME.record(System.nanoTime() - start);
+  }
 
-      // Compute process count
-      int machineProcessCount = machineStatus.get("process_count").intValue(0);
-      clusterProcessCount = clusterProcessCount + machineProcessCount;
+  /**
+   * Returns the node URI of the cluster agent that aggregates the given machine,
+   * hash-sharding the cluster when more than one shard is configured.
+   */
+  public static Uri clusterUri(final String clusterId, final Uri machineUri) {
+    if (SHARD_COUNT <= 1) {
+      return CLUSTER_URI_PATTERN.apply(clusterId);
     }
+    final int shard = Math.floorMod(machineUri.toString().hashCode(), SHARD_COUNT);
+    return CLUSTER_SHARD_URI_PATTERN.apply(clusterId, Integer.toString(shard));
+  }
 
-    final long avgLatency = latencyCount == 0 ? 0 : totalLatency / latencyCount;
-    final double avgSystemLoad = systemLoadCount == 0 ? 0 : totalSystemLoad / systemLoadCount;
-    final float avgMemoryUsage = memoryCount == 0 ? 0 : totalMemoryUsage / memoryCount;
-
-    this.status.set(
-            this.status.get()
-                    .updated("machine_count", machineCount)
-                    .updated("average_latency", avgLatency)
-                    .updated("average_system_load", avgSystemLoad)
-                    .updated("max_system_load", maxSystemLoad)
-                    .updated("average_memory_usage", avgMemoryUsage)
-                    .updated("max_memory_usage", maxMemoryUsage)
-                    .updated("average_cpu_usage", avgCPUUsage)
-                    .updated("cluster_average_memory_usage", clusterAvgMemoryUsage)
-                    .updated("cluster_process_count", clusterProcessCount)
-    );
+  private void restoreState() {
+    this.restoring = true;
+    this.historyTiers.restore(this.store);
+    final StatusHistoryBuffer history = this.historyTiers.history();
+    final long timestamp = history.lastTimestamp();
+    if (timestamp > 0L) {
+      // Serve the last published totals until the machines report again
+      this.status.set(history.get(timestamp).updated("timestamp", timestamp));
+    }
+    this.restoring = false;
   }
 
-  private void updateLastTimestampStatus(final Value update) {
-    final long timestamp = update.get("timestamp").longValue(0L);
-    if (timestamp > this.status.get().get("timestamp").longValue(0L)) {
-      this.status.set(
-              this.status.get().updated("timestamp", timestamp)
-      );
+  private void scheduleStoreFlush() {
+    if (this.storeFlushTimer == null || !this.storeFlushTimer.isScheduled()) {
+      this.storeFlushTimer = setTimer(STORE_FLUSH_INTERVAL, this.store::flush);
+      MonitorMetrics.TIMER_SCHEDULES.increment();
     }
   }
 
   @Override
   public void didStart() {
     info(nodeUri() + ": didStart");
+    this.store = AgentStore.open(nodeUri(), e -> warn(nodeUri() + ": store " + e), this::scheduleStoreFlush);
+    if (this.store != null) {
+      restoreState();
+    }
+    if (getProp("shard").isDefined()) {
+      // Register this shard with the rollup agent of its cluster
+      this.parentUri = CLUSTER_URI_PATTERN.apply(getProp("id").stringValue());
+      command(this.parentUri, ADD_SHARD_CLUSTER_LANE_URI, Uri.form().mold(nodeUri()).toValue());
+    }
+  }
+
+  @Override
+  public void willStop() {
+    if (this.store != null) {
+      this.store.close();
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,207 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.agent;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import swim.api.agent.AbstractAgent;
+import swim.api.lane.DemandMapLane;
+import swim.api.lane.MapLane;
+import swim.concurrent.TimerRef;
+import swim.monitor.model.HistoryQuery;
+import swim.monitor.model.HistoryRollup;
+import swim.monitor.model.HistorySchema;
+import swim.monitor.model.StatusHistoryBuffer;
+import swim.monitor.store.AgentStore;
+import swim.monitor.store.HistoryStore;
+import swim.monitor.util.MonitorMetrics;
+import swim.structure.Value;
+
+/**
+ * The status history of an agent and its 1m, 15m and 1h tiers, kept in step
+ * with the agent's history lanes and, once restored, its store. Only called
+ * from the agent's own lane and timer callbacks.
+ */
+final class HistoryTiers {
+
+  static final int MINUTE = 0;
+  static final int QUARTER_HOUR = 1;
+  static final int HOUR = 2;
+
+  private static final int STATUS_HISTORY_SIZE = 200;
+  private static final int STATUS_HISTORY_1M_SIZE = 1440;
+  private static final int STATUS_HISTORY_15M_SIZE = 672;
+  private static final int STATUS_HISTORY_1H_SIZE = 720;
+  private static final String[] TIER_LANE_NAMES = {"statusHistory1m", "statusHistory15m", "statusHistory1h"};
+
+  private static final int HISTORY_QUERY_COUNT = 32;
+
+  private final AbstractAgent agent;
+  private final HistorySchema schema;
+  private final StatusHistoryBuffer history;
+  private final HistoryRollup[] tiers;
+  private final DemandMapLane<Long, Value> historyLane;
+  private final DemandMapLane<Long, Value>[] tierLanes;
+  private final MapLane<String, Value> queryLane;
+  private final ArrayDeque<String> queryIds = new ArrayDeque<>();
+  private HistoryStore historyStore;
+  private TimerRef rollupTimer;
+  private long rollupCloseTime;
+
+  @SuppressWarnings("unchecked")
+  HistoryTiers(final AbstractAgent agent, final HistorySchema schema, final DemandMapLane<Long, Value> historyLane,
+               final DemandMapLane<Long, Value> lane1m, final DemandMapLane<Long, Value> lane15m,
+               final DemandMapLane<Long, Value> lane1h, final MapLane<String, Value> queryLane) {
+    this.agent = agent;
+    this.schema = schema;
+    this.history = new StatusHistoryBuffer(schema, STATUS_HISTORY_SIZE);
+    this.tiers = new HistoryRollup[] {
+        new HistoryRollup(schema, 60000L, STATUS_HISTORY_1M_SIZE),
+        new HistoryRollup(schema, 900000L, STATUS_HISTORY_15M_SIZE),
+        new HistoryRollup(schema, 3600000L, STATUS_HISTORY_1H_SIZE)
+    };
+    this.historyLane = historyLane;
+    this.tierLanes = new DemandMapLane[] {lane1m, lane15m, lane1h};
+    this.queryLane = queryLane;
+  }
+
+  StatusHistoryBuffer history() {
+    return this.history;
+  }
+
+  static Value cueHistory(final Value sample) {
+    // Samples evicted since they were cued are skipped
+    return sample.isDefined() ? sample : null;
+  }
+
+  Value cueTier(final int tier, final long timestamp) {
+    return cueHistory(this.tiers[tier].get(timestamp));
+  }
+
+  Iterator<Long> syncTier(final int tier) {
+    if (this.historyStore != null) {
+      this.historyStore.loadTier(this.tiers[tier]);
+    }
+    return this.tiers[tier].timestamps();
+  }
+
+  /**
+   * Loads the history persisted in the agent's store; later appends and
+   * closed buckets are persisted to it.
+   */
+  void restore(final AgentStore store) {
+    this.historyStore = new HistoryStore(store, "statusHistory", this.history, TIER_LANE_NAMES, this.tiers);
+    this.historyStore.loadHistory();
+  }
+
+  void answerHistoryQuery(final Value request) {
+    if (this.historyStore != null) {
+      for (HistoryRollup rollup : this.tiers) {
+        this.historyStore.loadTier(rollup);
+      }
+    }
+    final String id = request.get("id").stringValue("");
+    this.queryLane.put(id, HistoryQuery.run(request, this.schema,
+            this.history, this.tiers[MINUTE], this.tiers[QUARTER_HOUR], this.tiers[HOUR]));
+    // Only the latest answers are kept
+    this.queryIds.remove(id);
+    this.queryIds.addLast(id);
+    while (this.queryIds.size() > HISTORY_QUERY_COUNT) {
+      this.queryLane.remove(this.queryIds.removeFirst());
+    }
+  }
+
+  void appendHistory(final long timestamp, final Value status) {
+    final boolean replaced = this.history.indexOf(timestamp) >= 0;
+    final long evicted = this.history.put(timestamp, status);
+    if (evicted == timestamp) {
+      return;
+    }
+    if (this.historyStore != null) {
+      this.historyStore.didAppend(timestamp);
+    }
+    this.historyLane.cue(timestamp);
+    if (evicted > 0L) {
+      MonitorMetrics.HISTORY_EVICTIONS.increment();
+      this.historyLane.remove(evicted);
+    }
+    if (replaced) {
+      // Already rolled up; adding the sample again would count it twice
+      return;
+    }
+    final int index = this.history.indexOf(timestamp);
+    for (int tier = 0; tier < this.tiers.length; tier++) {
+      if (this.tiers[tier].add(timestamp, this.history, index)) {
+        didCloseBucket(tier);
+      }
+    }
+    scheduleRollupClose(this.history.lastTimestamp());
+  }
+
+  private void didCloseBucket(final int tier) {
+    final HistoryRollup rollup = this.tiers[tier];
+    this.tierLanes[tier].cue(rollup.closedTimestamp());
+    if (this.historyStore != null) {
+      this.historyStore.didClose(rollup, rollup.closedTimestamp());
+    }
+    if (rollup.evictedTimestamp() > 0L) {
+      this.tierLanes[tier].remove(rollup.evictedTimestamp());
+    }
+  }
+
+  private long nextRollupClose() {
+    long closeTime = Long.MAX_VALUE;
+    for (HistoryRollup rollup : this.tiers) {
+      closeTime = Math.min(closeTime, rollup.closeTime());
+    }
+    return closeTime;
+  }
+
+  // Closes buckets at their end rather than with the first sample of the next one, which may never come
+  private void scheduleRollupClose(final long timestamp) {
+    final long closeTime = nextRollupClose();
+    if (closeTime == Long.MAX_VALUE
+        || this.rollupTimer != null && this.rollupTimer.isScheduled() && closeTime == this.rollupCloseTime) {
+      return;
+    }
+    this.rollupCloseTime = closeTime;
+    // Bucket bounds follow the samples' clock, so the delay is measured from the newest sample
+    final long delay = Math.max(0L, closeTime - timestamp);
+    if (this.rollupTimer == null) {
+      this.rollupTimer = this.agent.setTimer(delay, this::closeRollups);
+    } else {
+      this.rollupTimer.reschedule(delay);
+    }
+    MonitorMetrics.TIMER_SCHEDULES.increment();
+  }
+
+  private void closeRollups() {
+    final long closeTime = this.rollupCloseTime;
+    closeRollups(closeTime);
+    scheduleRollupClose(closeTime);
+  }
+
+  /**
+   * Closes the open bucket of every tier that ends by the given time.
+   */
+  void closeRollups(final long closeTime) {
+    for (int tier = 0; tier < this.tiers.length; tier++) {
+      final HistoryRollup rollup = this.tiers[tier];
+      if (rollup.closeTime() <= closeTime && rollup.close()) {
+        didCloseBucket(tier);
+      }
+    }
+  }
+}
@@ -0,0 +1,86 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.agent;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import swim.api.SwimLane;
+import swim.api.agent.AbstractAgent;
+import swim.api.lane.CommandLane;
+import swim.api.lane.ValueLane;
+import swim.monitor.util.MonitorMetrics;
+import swim.structure.Item;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+/**
+ * Entry point of batches forwarded by a collector gateway, at {@code /ingest}.
+ * Each item of a batch is a {@code {node, lane, body}} command that was
+ * addressed to a machine agent, and is dispatched to it as if it had been
+ * sent directly.
+ */
+public class IngestAgent extends AbstractAgent {
+
+  private static final LongAdder ADD_BATCH_COMMANDS = MonitorMetrics.commandCounter("ingest/addBatch");
+  private static final String MACHINE_NODE_PREFIX = "/machine/";
+  // Only the lanes a host sends to are relayed, so a gateway can't be used to reach anything else
+  private static final Map<String, Uri> LANE_URIS = Map.of(
+          "addUsage", Uri.parse("addUsage"),
+          "addUsageDelta", Uri.parse("addUsageDelta"),
+          "replayUsage", Uri.parse("replayUsage"),
+          "addProcess", Uri.parse("addProcess"),
+          "addProcessDelta", Uri.parse("addProcessDelta"),
+          "addSystemInfo", Uri.parse("addSystemInfo"),
+          "addDisk", Uri.parse("addDisk"),
+          "addNetwork", Uri.parse("addNetwork"),
+          "addPressure", Uri.parse("addPressure"));
+
+  private long commandCount;
+  private long rejectedCount;
+
+  // Linked by gateways to learn when their connection to the server is (re-)established
+  @SwimLane("ingested")
+  ValueLane<Value> ingested = this.<Value>valueLane();
+
+  @SwimLane("addBatch")
+  CommandLane<Value> addBatch = this.<Value>commandLane()
+          .onCommand(batch -> {
+            ADD_BATCH_COMMANDS.increment();
+            for (Item item : batch) {
+              dispatch(item.toValue());
+            }
+            this.ingested.set(Record.create(3)
+                    .slot("timestamp", System.currentTimeMillis())
+                    .slot("commands", this.commandCount)
+                    .slot("rejected", this.rejectedCount));
+          });
+
+  private void dispatch(final Value command) {
+    final String node = command.get("node").stringValue("");
+    final Uri laneUri = LANE_URIS.get(command.get("lane").stringValue(""));
+    if (laneUri == null || !node.startsWith(MACHINE_NODE_PREFIX)) {
+      this.rejectedCount++;
+      return;
+    }
+    this.commandCount++;
+    command(Uri.parse(node), laneUri, command.get("body"));
+  }
+
+  @Override
+  public void didStart() {
+    info(nodeUri() + ": didStart");
+  }
+}
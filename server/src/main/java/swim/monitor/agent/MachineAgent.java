@@ -14,166 +14,482 @@
 
 package swim.monitor.agent;
 
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 import swim.api.SwimLane;
 import swim.api.agent.AbstractAgent;
 import swim.api.lane.CommandLane;
+import swim.api.lane.DemandMapLane;
 import swim.api.lane.MapLane;
 import swim.api.lane.ValueLane;
 import swim.concurrent.TimerRef;
+import swim.monitor.model.AnomalyDetector;
+import swim.monitor.model.IoTotals;
+import swim.monitor.model.MachineStatus;
+import swim.monitor.model.ProcessReconciler;
 import swim.monitor.model.StatusComputer;
+import swim.monitor.model.StatusHistoryBuffer;
+import swim.monitor.model.TopProcesses;
+import swim.monitor.model.ValueDelta;
+import swim.monitor.store.AgentStore;
+import swim.monitor.store.SegmentLog;
+import swim.monitor.util.MonitorMetrics;
 import swim.structure.Item;
+import swim.structure.Num;
 import swim.structure.Record;
 import swim.structure.Value;
 import swim.uri.Uri;
-import swim.uri.UriPattern;
 
 public class MachineAgent extends AbstractAgent {
 
-  private static final UriPattern CLUSTER_URI_PATTERN = UriPattern.parse("/cluster/:id");
+  private static final String DEFAULT_CLUSTER_ID = "default";
   private static final Uri ADD_MACHINE_CLUSTER_LANE_URI = Uri.parse("addMachine");
 
-  private static final int STATUS_HISTORY_SIZE = 200;
 
   private static final long DISCONNECT_WARNING_TIME = 10000L;
   private static final long DISCONNECT_TIME = 7200000L;
-  private TimerRef disconnectWarningTimer;
-  private TimerRef disconnectTimer;
+
+  // Changes in a process' cpu_load, and relative changes in its rss, that are too small to republish
+  private static final double PROCESS_CPU_TOLERANCE = Double.parseDouble(System.getProperty("process.cpu.tolerance", "0.005"));
+  private static final double PROCESS_RSS_TOLERANCE = Double.parseDouble(System.getProperty("process.rss.tolerance", "0.01"));
+
+  // Weight of each usage report in a metric's baseline, reports needed before it's scored,
+  // and the deviations from baseline that raise an alert
+  private static final double ANOMALY_ALPHA = Double.parseDouble(System.getProperty("anomaly.alpha", "0.05"));
+  private static final int ANOMALY_WARMUP = Integer.parseInt(System.getProperty("anomaly.warmup", "20"));
+  private static final double ANOMALY_THRESHOLD = Double.parseDouble(System.getProperty("anomaly.threshold", "4.0"));
+
+  private static final LongAdder ADD_USAGE_COMMANDS = MonitorMetrics.commandCounter("machine/addUsage");
+  private static final LongAdder ADD_USAGE_DELTA_COMMANDS = MonitorMetrics.commandCounter("machine/addUsageDelta");
+  private static final LongAdder REPLAY_USAGE_COMMANDS = MonitorMetrics.commandCounter("machine/replayUsage");
+  private static final LongAdder ADD_PROCESS_COMMANDS = MonitorMetrics.commandCounter("machine/addProcess");
+  private static final LongAdder ADD_PROCESS_DELTA_COMMANDS = MonitorMetrics.commandCounter("machine/addProcessDelta");
+  private static final LongAdder ADD_SYSTEM_INFO_COMMANDS = MonitorMetrics.commandCounter("machine/addSystemInfo");
+  private static final LongAdder ADD_DISK_COMMANDS = MonitorMetrics.commandCounter("machine/addDisk");
+  private static final LongAdder ADD_NETWORK_COMMANDS = MonitorMetrics.commandCounter("machine/addNetwork");
+  private static final LongAdder ADD_PRESSURE_COMMANDS = MonitorMetrics.commandCounter("machine/addPressure");
+
+  // Delay before buffered store appends are written out
+  private static final long STORE_FLUSH_INTERVAL = Long.parseLong(System.getProperty("monitor.store.flush.interval", "1000"));
+
+  // Updated in place by every report; the status lane gets a record only when it's published
+  private final MachineStatus machineStatus = new MachineStatus();
+  private final MachineStatus replayStatus = new MachineStatus();
+  private final AnomalyDetector anomalyDetector = new AnomalyDetector(MachineStatus.ANOMALY_METRICS,
+          ANOMALY_ALPHA, ANOMALY_WARMUP, ANOMALY_THRESHOLD);
+  private final ProcessReconciler processReconciler = new ProcessReconciler(PROCESS_CPU_TOLERANCE, PROCESS_RSS_TOLERANCE);
+  // Updates only record when they were seen; a single timer, re-armed lazily, checks for silence
+  private long lastSeen;
+  private boolean livenessWarned;
+  private TimerRef livenessTimer;
+  // Silence after which the client is warned about, stretched for clients that pulse less often
+  private long livenessWindow = DISCONNECT_WARNING_TIME;
+  // Only opened when monitor.store.dir is set
+  private AgentStore store;
+  private SegmentLog systemInfoLog;
+  private SegmentLog processesLog;
+  private TimerRef storeFlushTimer;
+  private boolean restoring;
 
   // Status Lane for Machine Agent
   @SwimLane("status")
   ValueLane<Value> status = this.<Value>valueLane()
-          .willSet(StatusComputer::computeSeverityFromStatus)
           .didSet((nv, ov) -> {
             final long timestamp = nv.get("timestamp").longValue(0L);
-            if (timestamp > 0L) {
-              this.statusHistory.put(timestamp, nv.removed("timestamp"));
+            // A restored status is already the last sample of the restored history
+            if (timestamp > 0L && !this.restoring) {
+              this.historyTiers.appendHistory(timestamp, nv);
             }
           });
 
+  // Samples live in primitive history columns; records are built only when a downlink syncs
   @SwimLane("statusHistory")
-  MapLane<Long, Value> statusHistory = this.<Long, Value>mapLane()
-          .didUpdate((k, nv, ov) -> trimHistory());
+  DemandMapLane<Long, Value> statusHistory = this.<Long, Value>demandMapLane()
+          .onSync(uplink -> this.historyTiers.history().timestamps())
+          .onCue((k, uplink) -> HistoryTiers.cueHistory(StatusComputer.withDerivedFields(this.historyTiers.history().get(k))));
 
-  private void trimHistory() {
-    final int dropCount = this.statusHistory.size() - STATUS_HISTORY_SIZE;
-    if (dropCount > 0) {
-      this.statusHistory.drop(dropCount);
-    }
-  }
+  // Downsampled tiers of statusHistory, one min/max/avg entry per closed bucket
+  @SwimLane("statusHistory1m")
+  DemandMapLane<Long, Value> statusHistory1m = this.<Long, Value>demandMapLane()
+          .onSync(uplink -> this.historyTiers.syncTier(HistoryTiers.MINUTE))
+          .onCue((k, uplink) -> this.historyTiers.cueTier(HistoryTiers.MINUTE, k));
+
+  @SwimLane("statusHistory15m")
+  DemandMapLane<Long, Value> statusHistory15m = this.<Long, Value>demandMapLane()
+          .onSync(uplink -> this.historyTiers.syncTier(HistoryTiers.QUARTER_HOUR))
+          .onCue((k, uplink) -> this.historyTiers.cueTier(HistoryTiers.QUARTER_HOUR, k));
+
+  @SwimLane("statusHistory1h")
+  DemandMapLane<Long, Value> statusHistory1h = this.<Long, Value>demandMapLane()
+          .onSync(uplink -> this.historyTiers.syncTier(HistoryTiers.HOUR))
+          .onCue((k, uplink) -> this.historyTiers.cueTier(HistoryTiers.HOUR, k));
+
+  @SwimLane("queryHistory")
+  CommandLane<Value> queryHistory = this.<Value>commandLane()
+          .onCommand(v -> this.historyTiers.answerHistoryQuery(v));
+
+  // Downsampled ranges of history, keyed by the id of the query that asked for them
+  @SwimLane("historyQuery")
+  MapLane<String, Value> historyQuery = this.<String, Value>mapLane();
+
+  private final HistoryTiers historyTiers = new HistoryTiers(this, StatusComputer.HISTORY_SCHEMA, this.statusHistory,
+          this.statusHistory1m, this.statusHistory15m, this.statusHistory1h, this.historyQuery);
 
   @SwimLane("addUsage")
   CommandLane<Value> addUsage = this.<Value>commandLane()
-          .onCommand(v -> this.usage.set(v));
+          .onCommand(v -> {
+            ADD_USAGE_COMMANDS.increment();
+            this.usage.set(v);
+          });
+
+  // Changed fields only, against the usage last sent by a client in delta mode
+  @SwimLane("addUsageDelta")
+  CommandLane<Value> addUsageDelta = this.<Value>commandLane()
+          .onCommand(v -> {
+            ADD_USAGE_DELTA_COMMANDS.increment();
+            this.usage.set(ValueDelta.merge(this.usage.get(), v));
+          });
 
   @SwimLane("usage")
   ValueLane<Value> usage = this.<Value>valueLane()
           .didSet((newValue, oldValue) -> {
-            updateLastTimestampStatus(newValue);
-            this.status.set(StatusComputer.computeStatusFromUsage(this.status.get(), newValue));
+            final long start = System.nanoTime();
+            updatePulseInterval(newValue);
+            touchStatus(newValue);
+            this.machineStatus.applyUsage(newValue);
+            this.machineStatus.scoreAnomalies(this.anomalyDetector);
+            publishStatus();
+            updateAlerts();
+            MonitorMetrics.MACHINE_STATUS_TIME.record(System.nanoTime() - start);
+          });
+
+  // Sent to adaptive clients for each sample: its timestamp, to time the round trip, and the server's pressure
+  @SwimLane("pulseHint")
+  ValueLane<Value> pulseHint = this.<Value>valueLane();
+
+  private void updatePulseInterval(final Value usage) {
+    final long pulseInterval = usage.get("pulse_interval").longValue(0L);
+    if (pulseInterval > 0L) {
+      this.livenessWindow = Math.max(DISCONNECT_WARNING_TIME, 2L * pulseInterval);
+      this.pulseHint.set(Record.create(2)
+              .slot("timestamp", usage.get("timestamp"))
+              .slot("pressure", MonitorMetrics.pressure()));
+    }
+  }
+
+  // Metrics currently deviating from this machine's baseline, keyed by metric name
+  @SwimLane("alerts")
+  MapLane<String, Value> alerts = this.<String, Value>mapLane();
+
+  private void updateAlerts() {
+    for (int i = 0; i < this.anomalyDetector.size(); i++) {
+      if (this.anomalyDetector.didRaise(i)) {
+        warn(nodeUri() + ": anomalous " + this.anomalyDetector.metric(i));
+        this.alerts.put(this.anomalyDetector.metric(i), this.anomalyDetector.alert(i));
+      } else if (this.anomalyDetector.didClear(i)) {
+        this.alerts.remove(this.anomalyDetector.metric(i));
+      }
+    }
+  }
+
+  @SwimLane("addDisk")
+  CommandLane<Value> addDisk = this.<Value>commandLane()
+          .onCommand(v -> {
+            ADD_DISK_COMMANDS.increment();
+            this.disk.set(v);
+          });
+
+  // Throughput of each disk per second, and their totals
+  @SwimLane("disk")
+  ValueLane<Value> disk = this.<Value>valueLane()
+          .didSet((nv, ov) -> publishIo());
+
+  @SwimLane("addNetwork")
+  CommandLane<Value> addNetwork = this.<Value>commandLane()
+          .onCommand(v -> {
+            ADD_NETWORK_COMMANDS.increment();
+            this.network.set(v);
+          });
+
+  // Traffic of each network interface per second, and their totals
+  @SwimLane("network")
+  ValueLane<Value> network = this.<Value>valueLane()
+          .didSet((nv, ov) -> publishIo());
+
+  @SwimLane("addPressure")
+  CommandLane<Value> addPressure = this.<Value>commandLane()
+          .onCommand(v -> {
+            ADD_PRESSURE_COMMANDS.increment();
+            this.pressure.set(v);
           });
 
+  // Percentage of time tasks were stalled on cpu, memory and io
+  @SwimLane("pressure")
+  ValueLane<Value> pressure = this.<Value>valueLane();
+
+  // Disk and network totals, rolled up by the cluster
+  @SwimLane("io")
+  ValueLane<Value> io = this.<Value>valueLane();
+
+  private void publishIo() {
+    this.io.set(IoTotals.summary(this.disk.get(), this.network.get()));
+  }
+
+  // Usage spooled by a client while it was disconnected, oldest first; only backfills history,
+  // so stale samples never touch the live status, the liveness timer or the cluster
+  @SwimLane("replayUsage")
+  CommandLane<Value> replayUsage = this.<Value>commandLane()
+          .onCommand(v -> {
+            REPLAY_USAGE_COMMANDS.increment();
+            backfillHistory(v);
+          });
+
+  private void backfillHistory(final Value samples) {
+    for (Item item : samples) {
+      final Value usage = item.toValue();
+      final long timestamp = usage.get("timestamp").longValue(0L);
+      if (timestamp > 0L) {
+        this.replayStatus.reset(timestamp);
+        this.replayStatus.applyUsage(usage);
+        this.historyTiers.appendHistory(timestamp, this.replayStatus.toValue());
+      }
+    }
+  }
+
   @SwimLane("addProcess")
   CommandLane<Value> addProcess = this.<Value>commandLane()
           .didCommand(v -> {
+            ADD_PROCESS_COMMANDS.increment();
             reconcileProcesses(v);
           });
 
   private void reconcileProcesses(Value v) {
-    final Iterator<Item> it = v.iterator();
-    Set<Integer> currentPids = new HashSet<>();
-    while (it.hasNext()) {
-      final Value value = it.next().toValue();
-      int pid = value.get("pid").intValue(-1);
-      if (pid > 0) {
-        processes.put(pid, value);
-        currentPids.add(pid);
-      }
+    // Unchanged processes are skipped, so track liveness from the command itself
+    if (v.length() > 0) {
+      updateLastTimestampStatus(v.getItem(0).toValue());
     }
-    for(int oldProcessId: processes.keySet()) {
-      if (!currentPids.contains(oldProcessId)) {
-        processes.remove(oldProcessId);
-      }
+    if (this.processReconciler.reconcile(this.processes, v) > 0) {
+      publishTopProcesses();
     }
   }
 
+  // Changed fields only, against the processes last sent by a client in delta mode
+  @SwimLane("addProcessDelta")
+  CommandLane<Value> addProcessDelta = this.<Value>commandLane()
+          .didCommand(v -> {
+            ADD_PROCESS_DELTA_COMMANDS.increment();
+            updateLastTimestampStatus(v);
+            if (this.processReconciler.applyDelta(this.processes, v) > 0) {
+              publishTopProcesses();
+            }
+          });
+
   @SwimLane("processes")
   MapLane<Integer, Value> processes = this.<Integer, Value>mapLane()
           .didUpdate((k, nv, ov) -> {
-            updateLastTimestampStatus(nv);
+            if (this.processesLog != null && !this.restoring) {
+              this.processesLog.append(AgentStore.entry(Num.from(k), nv));
+            }
+          })
+          .didRemove((k, ov) -> {
+            if (this.processesLog != null && !this.restoring) {
+              this.processesLog.append(AgentStore.removal(Num.from(k)));
+            }
           });
 
+  // This machine's share of its cluster's topProcesses
+  @SwimLane("topProcesses")
+  ValueLane<Value> topProcesses = this.<Value>valueLane();
+
+  private void publishTopProcesses() {
+    final Value top = TopProcesses.select(this.processes.values(), nodeUri().toString(), ClusterAgent.TOP_PROCESSES_SIZE);
+    if (!top.equals(this.topProcesses.get())) {
+      this.topProcesses.set(top);
+    }
+  }
+
   @SwimLane("addSystemInfo")
   CommandLane<Value> addSystemInfo = this.<Value>commandLane()
-          .onCommand(v -> this.systemInfo.set(v));
+          .onCommand(v -> {
+            ADD_SYSTEM_INFO_COMMANDS.increment();
+            this.systemInfo.set(v);
+          });
 
   @SwimLane("systemInfo")
   ValueLane<Value> systemInfo = this.<Value>valueLane()
           .didSet((newValue, oldValue) -> {
+            if (this.restoring) {
+              return;
+            }
+            if (this.systemInfoLog != null) {
+              this.systemInfoLog.append(newValue);
+            }
             updateLastTimestampStatus(newValue);
-            // command(CLUSTER_URI_PATTERN.apply(newValue.get("cluster_id").stringValue()), ADD_MACHINE_CLUSTER_LANE_URI, Uri.form().mold(nodeUri()).toValue());
-            command(CLUSTER_URI_PATTERN.apply("default"), ADD_MACHINE_CLUSTER_LANE_URI, Uri.form().mold(nodeUri()).toValue());
+            joinCluster(newValue);
           });
 
+  private void joinCluster(final Value systemInfo) {
+    final String clusterId = systemInfo.get("cluster_id").stringValue(DEFAULT_CLUSTER_ID);
+    command(ClusterAgent.clusterUri(clusterId, nodeUri()), ADD_MACHINE_CLUSTER_LANE_URI, Uri.form().mold(nodeUri()).toValue());
+  }
+
   private void updateLastTimestampStatus(final Value update) {
+    if (touchStatus(update)) {
+      publishStatus();
+    }
+  }
+
+  private boolean touchStatus(final Value update) {
     final long timestamp = update.get("timestamp").longValue(0L);
-    if (timestamp > this.status.get().get("timestamp").longValue(0L)) {
-      resetDisconnectWarningTimer();
-      final long latency = System.currentTimeMillis() - timestamp;
-      this.status.set(
-              this.status.get().updated("timestamp", timestamp).updated("latency", latency).updated("updating", true).removed("disconnected")
-      );
+    if (timestamp > this.machineStatus.timestamp()) {
+      touchLiveness();
+      this.machineStatus.touch(timestamp, System.currentTimeMillis() - timestamp);
+      return true;
+    }
+    return false;
+  }
+
+  private void publishStatus() {
+    this.status.set(this.machineStatus.toValue());
+  }
+
+  private void touchLiveness() {
+    this.lastSeen = System.currentTimeMillis();
+    if (this.livenessWarned) {
+      // Back from a warning; the timer is set for the disconnect, so bring it forward
+      this.livenessWarned = false;
+      this.livenessTimer.reschedule(this.livenessWindow);
+      MonitorMetrics.TIMER_SCHEDULES.increment();
+    } else if (this.livenessTimer == null) {
+      this.livenessTimer = setTimer(this.livenessWindow, this::checkLiveness);
+      MonitorMetrics.TIMER_SCHEDULES.increment();
+    } else if (!this.livenessTimer.isScheduled()) {
+      this.livenessTimer.reschedule(this.livenessWindow);
+      MonitorMetrics.TIMER_SCHEDULES.increment();
     }
   }
 
-  private void resetDisconnectWarningTimer() {
-    // There has been an update - reset the timers
-    cancelDisconnectTimer();
-    cancelDisconnectWarningTimer();
-    this.disconnectWarningTimer = setTimer(DISCONNECT_WARNING_TIME, this::setDisconnectWarning);
+  private void checkLiveness() {
+    if (this.livenessWarned) {
+      // Any update since the warning would have re-armed the timer
+      this.livenessWarned = false;
+      disconnect();
+      return;
+    }
+    final long silence = System.currentTimeMillis() - this.lastSeen;
+    if (silence < this.livenessWindow) {
+      // Updated since the timer was armed; check again when the latest update goes stale
+      this.livenessTimer.reschedule(this.livenessWindow - silence);
+      MonitorMetrics.TIMER_SCHEDULES.increment();
+    } else {
+      setDisconnectWarning();
+      this.livenessWarned = true;
+      this.livenessTimer.reschedule(DISCONNECT_TIME);
+      MonitorMetrics.TIMER_SCHEDULES.increment();
+    }
   }
 
   private void setDisconnectWarning() {
     // Client had not updated in given time
     warn(nodeUri() + ": noUpdate");
-    this.status.set(Record.create(2).slot("timestamp", System.currentTimeMillis()).slot("updating", false));
-    cancelDisconnectWarningTimer();
-    startDisconnectTimer();
+    this.machineStatus.stopUpdating(System.currentTimeMillis());
+    publishStatus();
   }
 
-  private void startDisconnectTimer() {
-    cancelDisconnectTimer();
-    this.disconnectTimer = setTimer(DISCONNECT_TIME, this::disconnect);
+  private void disconnect() {
+    this.machineStatus.disconnect(System.currentTimeMillis());
+    publishStatus();
+    this.historyTiers.closeRollups(Long.MAX_VALUE);
+    info(nodeUri() + ": disconnected");
   }
 
-  private void cancelDisconnectWarningTimer() {
-    if (this.disconnectWarningTimer != null) {
-      this.disconnectWarningTimer.cancel();
+  // Sent by the plane after a restart, only to start an agent that has persisted state
+  @SwimLane("restore")
+  CommandLane<Value> restore = this.<Value>commandLane();
+
+  private void restoreState() {
+    this.restoring = true;
+    this.historyTiers.restore(this.store);
+    final StatusHistoryBuffer history = this.historyTiers.history();
+    final long timestamp = history.lastTimestamp();
+    if (timestamp > this.machineStatus.timestamp()) {
+      // The latest sample is the last status published
+      this.machineStatus.readFrom(history.get(timestamp).updated("timestamp", timestamp));
+      publishStatus();
+    }
+
+    this.processesLog = this.store.log("processes", () -> processRecords());
+    this.processesLog.load(record -> {
+      final int pid = record.get("key").intValue(-1);
+      final Value process = record.get("value");
+      if (process.isDefined()) {
+        this.processes.put(pid, process);
+      } else {
+        this.processes.remove(pid);
+      }
+    });
+
+    if (!this.processes.isEmpty()) {
+      publishTopProcesses();
+    }
+
+    this.systemInfoLog = this.store.log("systemInfo", () -> Collections.singletonList(this.systemInfo.get()).iterator());
+    final Value[] systemInfo = {Value.absent()};
+    this.systemInfoLog.load(record -> systemInfo[0] = record);
+    if (systemInfo[0].isDefined()) {
+      this.systemInfo.set(systemInfo[0]);
+    }
+    this.restoring = false;
+
+    if (systemInfo[0].isDefined() && !this.machineStatus.isDisconnected()) {
+      // Rejoins the cluster; the machine is then marked as not updating if it doesn't report again.
+      // A machine that had already disconnected only rejoins once it reports again
+      joinCluster(systemInfo[0]);
+      touchLiveness();
     }
-    this.disconnectWarningTimer = null;
   }
 
-  private void cancelDisconnectTimer() {
-    if (this.disconnectTimer != null) {
-      this.disconnectTimer.cancel();
+  private void scheduleStoreFlush() {
+    if (this.storeFlushTimer == null || !this.storeFlushTimer.isScheduled()) {
+      this.storeFlushTimer = setTimer(STORE_FLUSH_INTERVAL, this.store::flush);
+      MonitorMetrics.TIMER_SCHEDULES.increment();
     }
-    this.disconnectTimer = null;
   }
 
-  private void disconnect() {
-    this.status.set(Record.create(2).slot("timestamp", System.currentTimeMillis()).slot("disconnected", true));
-    info(nodeUri() + ": disconnected");
+  private Iterator<Value> processRecords() {
+    final Iterator<Map.Entry<Integer, Value>> entries = this.processes.entrySet().iterator();
+    return new Iterator<Value>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      }
+
+      @Override
+      public Value next() {
+        final Map.Entry<Integer, Value> entry = entries.next();
+        return AgentStore.entry(Num.from(entry.getKey()), entry.getValue());
+      }
+    };
   }
 
   @Override
   public void didStart() {
     info(nodeUri() + ": didStart");
+    // Pick up where a persisted status left off
+    this.machineStatus.readFrom(this.status.get());
+    this.store = AgentStore.open(nodeUri(), e -> warn(nodeUri() + ": store " + e), this::scheduleStoreFlush);
+    if (this.store != null) {
+      restoreState();
+    }
   }
 
   @Override
   public void willStop() {
     info(nodeUri() + ": willStop");
+    if (this.store != null) {
+      this.store.close();
+    }
   }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.agent;
+
+import swim.api.SwimLane;
+import swim.api.agent.AbstractAgent;
+import swim.api.lane.CommandLane;
+import swim.api.lane.ValueLane;
+import swim.concurrent.TimerRef;
+import swim.monitor.util.MonitorMetrics;
+import swim.structure.Value;
+
+/**
+ * Publishes the monitor's own hot path metrics, complementing the kernel
+ * and lane statistics under {@code swim:meta}. Each snapshot also updates
+ * the pressure that machine agents hint to adaptive clients.
+ */
+public class SelfAgent extends AbstractAgent {
+
+  private static final long METRICS_INTERVAL = Long.parseLong(System.getProperty("monitor.self.interval", "5000"));
+
+  private long lastSnapshot;
+  private TimerRef metricsTimer;
+
+  @SwimLane("metrics")
+  ValueLane<Value> metrics = this.<Value>valueLane();
+
+  // Starts the agent, which otherwise only starts when first linked
+  @SwimLane("wake")
+  CommandLane<Value> wake = this.<Value>commandLane();
+
+  private void publishMetrics() {
+    final long now = System.currentTimeMillis();
+    this.metrics.set(MonitorMetrics.snapshot(now - this.lastSnapshot).updated("timestamp", now));
+    this.lastSnapshot = now;
+    this.metricsTimer.reschedule(METRICS_INTERVAL);
+  }
+
+  @Override
+  public void didStart() {
+    info(nodeUri() + ": didStart");
+    // Discard what was recorded before this agent started, so the first rates are over a known interval
+    this.lastSnapshot = System.currentTimeMillis();
+    MonitorMetrics.snapshot(0L);
+    this.metricsTimer = setTimer(METRICS_INTERVAL, this::publishMetrics);
+  }
+}
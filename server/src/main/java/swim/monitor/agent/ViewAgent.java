@@ -0,0 +1,151 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.agent;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import swim.api.SwimLane;
+import swim.api.agent.AbstractAgent;
+import swim.api.downlink.MapDownlink;
+import swim.api.downlink.ValueDownlink;
+import swim.api.lane.MapLane;
+import swim.api.lane.ValueLane;
+import swim.concurrent.TimerRef;
+import swim.structure.Value;
+import swim.uri.Uri;
+import swim.uri.UriPattern;
+
+/**
+ * Rate-limited view of a machine or cluster, at {@code /machine/:id/view/:rate}
+ * or {@code /cluster/:id/view/:rate}, for dashboards that can't keep up with
+ * every update. Mirrors the {@code status} lane of its source, and its
+ * {@code processes} or {@code machines} lane, publishing at most {@code rate}
+ * times per second; in between, only the latest value of each key is kept.
+ * Consumers that need every update link to the source agent directly.
+ * Only the rates in {@link #RATES} are served, so that a source has a bounded
+ * number of views; a view at any other rate closes without linking to its
+ * source.
+ */
+public class ViewAgent extends AbstractAgent {
+
+  private static final UriPattern MACHINE_URI_PATTERN = UriPattern.parse("/machine/:id");
+  private static final UriPattern CLUSTER_URI_PATTERN = UriPattern.parse("/cluster/:id");
+  private static final Uri STATUS_LANE_URI = Uri.parse("status");
+  private static final Uri PROCESSES_LANE_URI = Uri.parse("processes");
+  private static final Uri MACHINES_LANE_URI = Uri.parse("machines");
+  static final List<String> RATES = Arrays.asList("1", "2", "5", "10");
+
+  private long flushInterval;
+  private long lastFlush;
+  private TimerRef flushTimer;
+  // Latest source values not yet published; an absent member value stands for a removal
+  private Value pendingStatus;
+  private final Map<Value, Value> pendingMembers = new LinkedHashMap<>();
+  private MapLane<Value, Value> members;
+  private ValueDownlink<Value> statusLink;
+  private MapDownlink<Value, Value> membersLink;
+
+  @SwimLane("status")
+  ValueLane<Value> status = this.<Value>valueLane();
+
+  // Processes of a machine view, or machine statuses of a cluster view
+  @SwimLane("processes")
+  MapLane<Value, Value> processes = this.<Value, Value>mapLane();
+
+  @SwimLane("machines")
+  MapLane<Value, Value> machines = this.<Value, Value>mapLane();
+
+  private void openSource(final Uri sourceUri, final Uri membersLaneUri, final MapLane<Value, Value> members) {
+    this.members = members;
+    this.statusLink = downlinkValue()
+            .nodeUri(sourceUri)
+            .laneUri(STATUS_LANE_URI)
+            .didSet((nv, ov) -> {
+              this.pendingStatus = nv;
+              scheduleFlush();
+            })
+            .open();
+    this.membersLink = downlinkMap()
+            .nodeUri(sourceUri)
+            .laneUri(membersLaneUri)
+            .didUpdate((k, nv, ov) -> {
+              this.pendingMembers.put(k, nv);
+              scheduleFlush();
+            })
+            .didRemove((k, ov) -> {
+              this.pendingMembers.put(k, Value.absent());
+              scheduleFlush();
+            })
+            .open();
+  }
+
+  private void scheduleFlush() {
+    if (this.flushTimer == null || !this.flushTimer.isScheduled()) {
+      // Publish right away if the last publication is at least an interval old
+      final long delay = Math.max(0L, this.lastFlush + this.flushInterval - System.currentTimeMillis());
+      this.flushTimer = setTimer(delay, this::flush);
+    }
+  }
+
+  private void flush() {
+    this.lastFlush = System.currentTimeMillis();
+    if (this.pendingStatus != null) {
+      this.status.set(this.pendingStatus);
+      this.pendingStatus = null;
+    }
+    for (Map.Entry<Value, Value> entry : this.pendingMembers.entrySet()) {
+      if (entry.getValue().isDefined()) {
+        this.members.put(entry.getKey(), entry.getValue());
+      } else {
+        this.members.remove(entry.getKey());
+      }
+    }
+    this.pendingMembers.clear();
+  }
+
+  @Override
+  public void didStart() {
+    info(nodeUri() + ": didStart");
+    final String rate = getProp("rate").stringValue("");
+    if (!RATES.contains(rate)) {
+      warn(nodeUri() + ": unsupported view rate " + rate + ", expected one of " + RATES);
+      close();
+      return;
+    }
+    this.flushInterval = 1000L / Long.parseLong(rate);
+    final String id = getProp("id").stringValue();
+    if (nodeUri().toString().startsWith("/machine/")) {
+      openSource(MACHINE_URI_PATTERN.apply(id), PROCESSES_LANE_URI, this.processes);
+    } else {
+      openSource(CLUSTER_URI_PATTERN.apply(id), MACHINES_LANE_URI, this.machines);
+    }
+  }
+
+  @Override
+  public void willStop() {
+    info(nodeUri() + ": willStop");
+    if (this.flushTimer != null) {
+      this.flushTimer.cancel();
+    }
+    if (this.statusLink != null) {
+      this.statusLink.close();
+    }
+    if (this.membersLink != null) {
+      this.membersLink.close();
+    }
+  }
+}
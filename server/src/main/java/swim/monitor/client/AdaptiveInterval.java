@@ -0,0 +1,58 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+/**
+ * Pulse interval that follows how fast a machine is changing. A pulse whose
+ * change score reaches 1 halves the interval, down to the floor; a run of
+ * quiet pulses grows it by a quarter each, up to the ceiling. The interval
+ * in effect is then stretched by the pressure reported by the server or
+ * observed in round trips, so an overloaded server receives fewer samples.
+ * Not thread-safe.
+ */
+public class AdaptiveInterval {
+
+  // Change scores below this are quiet; between it and 1 the interval holds
+  private static final double QUIET_SCORE = 0.25;
+  private static final double BACKOFF = 1.25;
+  private static final int QUIET_PULSES = 3;
+
+  private final long floor;
+  private final long ceiling;
+  private long interval;
+  private int quietPulses;
+
+  public AdaptiveInterval(final long floor, final long ceiling, final long initial) {
+    this.floor = floor;
+    this.ceiling = Math.max(floor, ceiling);
+    this.interval = Math.max(this.floor, Math.min(this.ceiling, initial));
+  }
+
+  /**
+   * Adapts to the change score of the latest pulse, where 1 is a
+   * significant change, and returns the interval to wait before the next
+   * one under the given pressure, at least 1.
+   */
+  public long update(final double change, final double pressure) {
+    if (change >= 1.0) {
+      this.interval = Math.max(this.floor, this.interval / 2L);
+      this.quietPulses = 0;
+    } else if (change < QUIET_SCORE && ++this.quietPulses >= QUIET_PULSES) {
+      this.interval = Math.min(this.ceiling, (long) (this.interval * BACKOFF));
+      this.quietPulses = 0;
+    }
+    return Math.min(this.ceiling, (long) (this.interval * Math.max(1.0, pressure)));
+  }
+}
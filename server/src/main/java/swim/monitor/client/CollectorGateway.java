@@ -0,0 +1,162 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import swim.client.ClientRuntime;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+/**
+ * Relay between many monitored hosts or containers and the server. Hosts
+ * running with {@code monitor.relay} send their commands here over a plain
+ * socket, and every {@code collector.interval} ms the gateway forwards all
+ * of them to the server's {@code /ingest} agent as one batch, over a single
+ * WARP connection. The latest system info of every host is resent whenever
+ * that connection is re-established. At most {@code collector.queue}
+ * commands are held while the server is unreachable; the oldest are dropped
+ * beyond that.
+ */
+public class CollectorGateway {
+
+  static final int DEFAULT_PORT = 9002;
+  private static final int PORT = Integer.parseInt(System.getProperty("collector.port", Integer.toString(DEFAULT_PORT)));
+  private static final long INTERVAL = Long.parseLong(System.getProperty("collector.interval", "1000"));
+  private static final int BATCH_SIZE = Integer.parseInt(System.getProperty("collector.batch", "1000"));
+  private static final int QUEUE_SIZE = Integer.parseInt(System.getProperty("collector.queue", "100000"));
+  private static final int MAX_FRAME_SIZE = Integer.parseInt(System.getProperty("collector.frame.max", "1048576"));
+
+  private static final Uri INGEST_NODE_URI = Uri.parse("/ingest");
+  private static final Uri ADD_BATCH_LANE_URI = Uri.parse("addBatch");
+  private static final Uri INGESTED_LANE_URI = Uri.parse("ingested");
+  private static final String ADD_SYSTEM_INFO_LANE = "addSystemInfo";
+
+  private final ClientRuntime client;
+  private final Uri hostUri;
+  private final ConcurrentLinkedQueue<Value> pending = new ConcurrentLinkedQueue<>();
+  // ConcurrentLinkedQueue.size() is linear, so the queue's length is tracked alongside it
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final LongAdder dropped = new LongAdder();
+  private final Map<String, Value> systemInfos = new ConcurrentHashMap<>();
+
+  public CollectorGateway(final ClientRuntime client, final Uri hostUri) {
+    this.client = client;
+    this.hostUri = hostUri;
+  }
+
+  public static void main(String[] args) throws IOException {
+    final ClientRuntime client = new ClientRuntime();
+    client.start();
+    final CollectorGateway gateway = new CollectorGateway(client, SwimMonitorClient.HOST_URI);
+    gateway.start();
+    System.out.println("Relaying hosts on port " + PORT + " to " + SwimMonitorClient.HOST_URI + " every " + INTERVAL + "ms");
+    gateway.accept(new ServerSocket(PORT));
+  }
+
+  public void start() {
+    this.client.downlinkValue()
+            .hostUri(this.hostUri)
+            .nodeUri(INGEST_NODE_URI)
+            .laneUri(INGESTED_LANE_URI)
+            .keepLinked(true)
+            .keepSynced(false)
+            .didConnect(this::didConnect)
+            .open();
+    final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+            new Thread(runnable, "collector-flush"));
+    executor.scheduleAtFixedRate(this::flush, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  private void didConnect() {
+    // A restarted server may have lost track of the hosts, and they only resend it when they reconnect
+    for (Value systemInfo : this.systemInfos.values()) {
+      enqueue(systemInfo);
+    }
+  }
+
+  private void enqueue(final Value command) {
+    this.pending.add(command);
+    if (this.pendingCount.incrementAndGet() > QUEUE_SIZE && this.pending.poll() != null) {
+      this.pendingCount.decrementAndGet();
+      this.dropped.increment();
+    }
+  }
+
+  private Value dequeue() {
+    final Value command = this.pending.poll();
+    if (command != null) {
+      this.pendingCount.decrementAndGet();
+    }
+    return command;
+  }
+
+  private void accept(final ServerSocket serverSocket) throws IOException {
+    while (true) {
+      final Socket socket = serverSocket.accept();
+      final Thread reader = new Thread(() -> read(socket), "collector-" + socket.getRemoteSocketAddress());
+      reader.setDaemon(true);
+      reader.start();
+    }
+  }
+
+  private void read(final Socket socket) {
+    // Closing the stream on any failure drops the host, which reconnects and resends its system info
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+      Value command;
+      while ((command = RelayConnection.readFrame(input, MAX_FRAME_SIZE)) != null) {
+        if (ADD_SYSTEM_INFO_LANE.equals(command.get("lane").stringValue(""))) {
+          this.systemInfos.put(command.get("node").stringValue(""), command);
+        }
+        enqueue(command);
+      }
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Relay from " + socket.getRemoteSocketAddress() + " failed: " + e);
+    }
+  }
+
+  private void flush() {
+    try {
+      final long dropped = this.dropped.sumThenReset();
+      if (dropped > 0L) {
+        System.err.println("Dropped " + dropped + " commands while the server was falling behind");
+      }
+      Value command = dequeue();
+      while (command != null) {
+        final Record batch = Record.create();
+        while (command != null && batch.length() < BATCH_SIZE) {
+          batch.add(command);
+          command = dequeue();
+        }
+        this.client.command(this.hostUri, INGEST_NODE_URI, ADD_BATCH_LANE_URI, batch);
+      }
+    } catch (RuntimeException e) {
+      // An exception would cancel the periodic flush for good
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Cumulative counters of a set of named devices, such as disks or network
+ * interfaces, as of the last two samples. Devices are looked up by the
+ * bytes of their name, so only a device seen for the first time allocates.
+ * Devices missing from a sample, such as detached disks or deleted
+ * interfaces, are dropped when the next one starts. Not thread-safe.
+ */
+final class CounterTable {
+
+  private final int fieldCount;
+  // Decides once per device whether it's reported
+  private final Predicate<String> filter;
+  private byte[][] names = new byte[8][];
+  private String[] labels = new String[8];
+  private boolean[] included = new boolean[8];
+  private long[][] current = new long[8][];
+  private long[][] previous = new long[8][];
+  private long[] seenAt = new long[8];
+  private long[] previouslySeenAt = new long[8];
+  private int size;
+  private long generation;
+
+  CounterTable(final int fieldCount, final Predicate<String> filter) {
+    this.fieldCount = fieldCount;
+    this.filter = filter;
+  }
+
+  int size() {
+    return this.size;
+  }
+
+  String label(final int device) {
+    return this.labels[device];
+  }
+
+  /**
+   * Starts a new sample, keeping the counters of the current one as the
+   * previous, and forgets the devices the current one didn't see.
+   */
+  void startSample() {
+    compact();
+    this.generation++;
+    for (int i = 0; i < this.size; i++) {
+      final long[] counters = this.previous[i];
+      this.previous[i] = this.current[i];
+      this.current[i] = counters;
+      this.previouslySeenAt[i] = this.seenAt[i];
+    }
+  }
+
+  /**
+   * Marks the device named by the given bytes as seen in the current sample
+   * and returns its index, or -1 if it isn't reported.
+   */
+  int device(final byte[] buffer, final int start, final int end) {
+    int device = indexOf(buffer, start, end);
+    if (device < 0) {
+      device = add(buffer, start, end);
+    }
+    // Excluded devices are tracked too, so the filter only runs once per device
+    this.seenAt[device] = this.generation;
+    return this.included[device] ? device : -1;
+  }
+
+  void set(final int device, final int field, final long value) {
+    this.current[device][field] = value;
+  }
+
+  /**
+   * Returns whether the device was seen in both the current and the previous sample.
+   */
+  boolean hasRate(final int device) {
+    return this.included[device] && this.seenAt[device] == this.generation
+        && this.previouslySeenAt[device] == this.generation - 1L;
+  }
+
+  /**
+   * Returns the increase of a counter between the previous and the current
+   * sample, per second, or 0 if the counter was reset.
+   */
+  double rate(final int device, final int field, final double seconds) {
+    final long delta = this.current[device][field] - this.previous[device][field];
+    return delta > 0L ? delta / seconds : 0.0;
+  }
+
+  private void compact() {
+    int size = 0;
+    for (int device = 0; device < this.size; device++) {
+      if (this.seenAt[device] == this.generation) {
+        if (size != device) {
+          this.names[size] = this.names[device];
+          this.labels[size] = this.labels[device];
+          this.included[size] = this.included[device];
+          this.current[size] = this.current[device];
+          this.previous[size] = this.previous[device];
+          this.seenAt[size] = this.seenAt[device];
+          this.previouslySeenAt[size] = this.previouslySeenAt[device];
+        }
+        size++;
+      }
+    }
+    Arrays.fill(this.names, size, this.size, null);
+    Arrays.fill(this.labels, size, this.size, null);
+    Arrays.fill(this.current, size, this.size, null);
+    Arrays.fill(this.previous, size, this.size, null);
+    this.size = size;
+  }
+
+  private int indexOf(final byte[] buffer, final int start, final int end) {
+    final int length = end - start;
+    search:
+    for (int device = 0; device < this.size; device++) {
+      final byte[] name = this.names[device];
+      if (name.length != length) {
+        continue;
+      }
+      for (int i = 0; i < length; i++) {
+        if (name[i] != buffer[start + i]) {
+          continue search;
+        }
+      }
+      return device;
+    }
+    return -1;
+  }
+
+  private int add(final byte[] buffer, final int start, final int end) {
+    if (this.size == this.names.length) {
+      final int capacity = this.size * 2;
+      this.names = Arrays.copyOf(this.names, capacity);
+      this.labels = Arrays.copyOf(this.labels, capacity);
+      this.included = Arrays.copyOf(this.included, capacity);
+      this.current = Arrays.copyOf(this.current, capacity);
+      this.previous = Arrays.copyOf(this.previous, capacity);
+      this.seenAt = Arrays.copyOf(this.seenAt, capacity);
+      this.previouslySeenAt = Arrays.copyOf(this.previouslySeenAt, capacity);
+    }
+    final int device = this.size++;
+    this.names[device] = Arrays.copyOfRange(buffer, start, end);
+    this.labels[device] = new String(this.names[device], StandardCharsets.US_ASCII);
+    this.included[device] = this.filter.test(this.labels[device]);
+    this.current[device] = new long[this.fieldCount];
+    this.previous[device] = new long[this.fieldCount];
+    // Not rated until it has been seen twice
+    this.previouslySeenAt[device] = -1L;
+    return device;
+  }
+}
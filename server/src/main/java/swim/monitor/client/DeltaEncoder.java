@@ -0,0 +1,165 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import swim.monitor.model.ValueDelta;
+import swim.structure.Item;
+import swim.structure.Num;
+import swim.structure.Record;
+import swim.structure.Slot;
+import swim.structure.Value;
+
+/**
+ * Encodes usage and process payloads as deltas against the values last sent
+ * to the server, dropping numeric fields whose change stays within their
+ * deadband. Fields no longer reported are sent as {@code extant}, which
+ * {@link ValueDelta#merge} treats as a removal. Not thread-safe.
+ */
+public class DeltaEncoder {
+
+  private final HashMap<String, Double> absoluteDeadbands = new HashMap<>();
+  private final HashMap<String, Double> relativeDeadbands = new HashMap<>();
+
+  // What the server has been sent, with every delta applied
+  private Value usage = Value.absent();
+  private final HashMap<Integer, Value> processes = new HashMap<>();
+
+  /**
+   * Ignores changes to the named field, and to the fields nested in it,
+   * of at most {@code deadband}.
+   */
+  public DeltaEncoder absolute(final String name, final double deadband) {
+    this.absoluteDeadbands.put(name, deadband);
+    return this;
+  }
+
+  /**
+   * Ignores changes to the named field, and to the fields nested in it,
+   * of at most {@code deadband} times its last sent value.
+   */
+  public DeltaEncoder relative(final String name, final double deadband) {
+    this.relativeDeadbands.put(name, deadband);
+    return this;
+  }
+
+  /**
+   * Records a full usage payload as sent.
+   */
+  public void usageKeyframe(final Value usage) {
+    this.usage = usage;
+  }
+
+  /**
+   * Records a full process list as sent.
+   */
+  public void processesKeyframe(final Value processes) {
+    this.processes.clear();
+    for (Item item : processes) {
+      final Value process = item.toValue();
+      this.processes.put(process.get("pid").intValue(-1), process);
+    }
+  }
+
+  /**
+   * Returns the fields of a usage payload that changed beyond their
+   * deadband, always including its timestamp.
+   */
+  public Value usageDelta(final Value usage) {
+    final Value delta = diff(this.usage, usage, 0.0, 0.0);
+    if (delta.isDefined()) {
+      this.usage = ValueDelta.merge(this.usage, delta);
+    }
+    return withFields(Record.create(delta.length() + 1).slot("timestamp", usage.get("timestamp")), delta);
+  }
+
+  /**
+   * Returns the changed fields of every new or changed process, keyed by
+   * pid, along with the pids no longer reported.
+   */
+  public Value processesDelta(final Value processes, final long timestamp) {
+    final Record changed = Record.create();
+    final HashMap<Integer, Value> current = new HashMap<>();
+    for (Item item : processes) {
+      final Value process = item.toValue();
+      final int pid = process.get("pid").intValue(-1);
+      current.put(pid, process);
+      final Value previous = this.processes.get(pid);
+      final Value delta = diff(previous == null ? Value.absent() : previous, process, 0.0, 0.0);
+      if (delta.isDefined()) {
+        changed.add(withFields(Record.create(delta.length() + 1).slot("pid", pid), delta));
+        this.processes.put(pid, previous == null ? process : ValueDelta.merge(previous, delta));
+      }
+    }
+
+    final Record removed = Record.create();
+    final Iterator<Integer> pids = this.processes.keySet().iterator();
+    while (pids.hasNext()) {
+      final int pid = pids.next();
+      if (!current.containsKey(pid)) {
+        removed.item(pid);
+        pids.remove();
+      }
+    }
+
+    return Record.create(3)
+            .slot("timestamp", timestamp)
+            .slot("changed", changed)
+            .slot("removed", removed);
+  }
+
+  private static Record withFields(final Record record, final Value fields) {
+    for (Item item : fields) {
+      if (!record.get(item.key()).isDefined()) {
+        record.add(item);
+      }
+    }
+    return record;
+  }
+
+  private Value diff(final Value base, final Value current, final double absolute, final double relative) {
+    if (current instanceof Record) {
+      final Record delta = Record.create();
+      for (Item item : current) {
+        final String name = item.key().stringValue();
+        // Timestamps always change; callers carry one per payload instead
+        if (item instanceof Slot && !"timestamp".equals(name)) {
+          final Value field = diff(base.get(name), item.toValue(),
+                                   this.absoluteDeadbands.getOrDefault(name, absolute),
+                                   this.relativeDeadbands.getOrDefault(name, relative));
+          if (field.isDefined()) {
+            delta.slot(name, field);
+          }
+        }
+      }
+      if (base instanceof Record) {
+        for (Item item : base) {
+          final String name = item.key().stringValue();
+          if (item instanceof Slot && !"timestamp".equals(name) && !current.get(name).isDefined()) {
+            delta.slot(name, ValueDelta.REMOVED);
+          }
+        }
+      }
+      return delta.isEmpty() ? Value.absent() : delta;
+    } else if (current instanceof Num && base instanceof Num) {
+      final double previous = base.doubleValue();
+      final double change = Math.abs(current.doubleValue() - previous);
+      return change > absolute && change > relative * Math.abs(previous) ? current : Value.absent();
+    } else {
+      return current.equals(base) ? Value.absent() : current;
+    }
+  }
+}
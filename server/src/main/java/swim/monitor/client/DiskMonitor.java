@@ -0,0 +1,127 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.io.File;
+import swim.api.ref.WarpRef;
+import swim.structure.Record;
+import swim.uri.Uri;
+
+/**
+ * Reports the throughput and utilization of every disk, and their totals,
+ * from {@code /proc/diskstats}. Partitions and virtual block devices are
+ * left out, so that no I/O is counted twice.
+ */
+public class DiskMonitor extends Monitor {
+
+  private static final String DISKSTATS = "/proc/diskstats";
+  private static final File SYS_BLOCK = new File("/sys/block");
+  private static final Uri LANE_URI = Uri.parse("addDisk");
+  private static final long SECTOR_SIZE = 512L;
+
+  // Counters following the device name, numbered from 0
+  private static final int READS = 0;
+  private static final int SECTORS_READ = 2;
+  private static final int WRITES = 4;
+  private static final int SECTORS_WRITTEN = 6;
+  private static final int IO_TIME = 9;
+
+  private final ProcFile diskstats = ProcFile.open(DISKSTATS);
+  private final CounterTable disks = new CounterTable(IO_TIME + 1, DiskMonitor::isDisk);
+  private long lastSample;
+
+  public DiskMonitor(final WarpRef warpRef, final Uri hostUri, final Uri nodeUri, final long pulseInterval,
+                     final RelayConnection relay) {
+    super(warpRef, null, pulseInterval, hostUri, nodeUri, LANE_URI);
+    setRelay(relay);
+  }
+
+  public static boolean isSupported() {
+    return new File(DISKSTATS).canRead();
+  }
+
+  private static boolean isDisk(final String name) {
+    if (name.startsWith("loop") || name.startsWith("ram") || name.startsWith("zram")
+        || name.startsWith("dm-") || name.startsWith("md") || name.startsWith("sr")) {
+      return false;
+    }
+    // Only whole disks are listed under /sys/block
+    return !SYS_BLOCK.isDirectory() || new File(SYS_BLOCK, name).exists();
+  }
+
+  @Override
+  public void pulse() {
+    final long now = System.nanoTime();
+    if (this.diskstats == null || !this.diskstats.read()) {
+      return;
+    }
+    this.disks.startSample();
+    do {
+      // Major and minor device numbers
+      this.diskstats.nextToken();
+      this.diskstats.nextToken();
+      if (this.diskstats.nextToken()) {
+        final int disk = this.disks.device(this.diskstats.buffer(), this.diskstats.tokenStart(), this.diskstats.tokenEnd());
+        for (int field = 0; disk >= 0 && field <= IO_TIME; field++) {
+          this.disks.set(disk, field, this.diskstats.nextLong());
+        }
+      }
+    } while (this.diskstats.nextLine());
+
+    final double seconds = (now - this.lastSample) / 1.0e9;
+    this.lastSample = now;
+    if (seconds <= 0.0) {
+      return;
+    }
+    final Record devices = Record.create();
+    double readBytes = 0.0;
+    double writeBytes = 0.0;
+    double reads = 0.0;
+    double writes = 0.0;
+    double utilization = 0.0;
+    for (int disk = 0; disk < this.disks.size(); disk++) {
+      if (this.disks.hasRate(disk)) {
+        final double diskReadBytes = this.disks.rate(disk, SECTORS_READ, seconds) * SECTOR_SIZE;
+        final double diskWriteBytes = this.disks.rate(disk, SECTORS_WRITTEN, seconds) * SECTOR_SIZE;
+        final double diskReads = this.disks.rate(disk, READS, seconds);
+        final double diskWrites = this.disks.rate(disk, WRITES, seconds);
+        // Milliseconds spent doing I/O per second, as a percentage
+        final double diskUtilization = Math.min(100.0, this.disks.rate(disk, IO_TIME, seconds) / 10.0);
+        devices.slot(this.disks.label(disk), Record.create(5)
+                .slot("read_bytes", diskReadBytes)
+                .slot("write_bytes", diskWriteBytes)
+                .slot("reads", diskReads)
+                .slot("writes", diskWrites)
+                .slot("utilization", diskUtilization));
+        readBytes += diskReadBytes;
+        writeBytes += diskWriteBytes;
+        reads += diskReads;
+        writes += diskWrites;
+        utilization = Math.max(utilization, diskUtilization);
+      }
+    }
+    if (devices.isEmpty()) {
+      return;
+    }
+    send(LANE_URI, Record.create(7)
+            .slot("timestamp", System.currentTimeMillis())
+            .slot("read_bytes", readBytes)
+            .slot("write_bytes", writeBytes)
+            .slot("reads", reads)
+            .slot("writes", writes)
+            .slot("utilization", utilization)
+            .slot("devices", devices));
+  }
+}
@@ -0,0 +1,385 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import oshi.software.os.linux.LinuxOperatingSystem;
+import swim.monitor.util.IntObjectHashMap;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Collects the top processes by CPU straight from {@code /proc}, reading
+ * each {@code stat} file into a reused buffer. Static attributes and the
+ * CPU time of the previous scan are cached per pid until its start time
+ * changes, and only a bounded heap of the top processes is kept while
+ * scanning. Not thread-safe.
+ */
+public class LinuxProcessCollector implements ProcessCollector {
+
+  private static final File PROC = new File("/proc");
+  // As getconf reports them, so 64K pages on arm64 or ppc64le count right; the properties only apply when OSHI can't tell
+  private static final long CLOCK_TICKS = sysconf(LinuxOperatingSystem::getHz, "proc.clock.ticks", "100");
+  private static final long PAGE_SIZE = sysconf(LinuxOperatingSystem::getPageSize, "proc.page.size", "4096");
+
+  // Indices into statFields, numbered as in proc(5)
+  private static final int UTIME = 14;
+  private static final int STIME = 15;
+  private static final int PRIORITY = 18;
+  private static final int STARTTIME = 22;
+  private static final int VSIZE = 23;
+  private static final int RSS = 24;
+
+  private final int limit;
+  private final long bootTime;
+  private final byte[] buffer = new byte[4096];
+  private final long[] statFields = new long[RSS + 1];
+  private int commStart;
+  private int commEnd;
+  private final StringBuilder path = new StringBuilder(32);
+
+  private final IntObjectHashMap<ProcessEntry> entries = new IntObjectHashMap<>(1024);
+  private final HashMap<String, String> userNames = new HashMap<>();
+  private final ProcessEntry[] heap;
+  private int heapSize;
+  private int processCount;
+  private long generation;
+  private final Predicate<ProcessEntry> isStale = entry -> entry.generation != this.generation;
+
+  public LinuxProcessCollector(final int limit) {
+    this.limit = limit;
+    this.heap = new ProcessEntry[limit];
+    this.bootTime = readBootTime();
+    loadUserNames();
+  }
+
+  public static boolean isSupported() {
+    return new File("/proc/self/stat").canRead() && new File("/proc/stat").canRead();
+  }
+
+  /**
+   * Returns the number of processes seen by the last collection.
+   */
+  public int processCount() {
+    return this.processCount;
+  }
+
+  /**
+   * Scans every process and returns the top ones by CPU load over the
+   * interval since the previous scan, highest first, in the same shape as
+   * the OSHI based process info.
+   */
+  @Override
+  public Record collect(final long timestamp) {
+    this.generation++;
+    this.heapSize = 0;
+    this.processCount = 0;
+
+    final String[] names = PROC.list();
+    if (names != null) {
+      for (String name : names) {
+        final int pid = parsePid(name);
+        if (pid > 0 && readStat(pid)) {
+          this.processCount++;
+          offer(update(pid, timestamp));
+        }
+      }
+    }
+    this.entries.removeIf(this.isStale);
+
+    // Heap sort in place; popping the minimum to the end leaves the heap in descending order
+    for (int n = this.heapSize - 1; n > 0; n--) {
+      swap(0, n);
+      siftDown(0, n);
+    }
+    final Record processes = Record.create(this.heapSize);
+    for (int i = 0; i < this.heapSize; i++) {
+      processes.add(this.heap[i].toValue(timestamp));
+      this.heap[i] = null;
+    }
+    return processes;
+  }
+
+  private ProcessEntry update(final int pid, final long timestamp) {
+    final long startTicks = this.statFields[STARTTIME];
+    ProcessEntry entry = this.entries.get(pid);
+    if (entry == null || entry.startTicks != startTicks) {
+      // New process, or the pid was reused
+      entry = new ProcessEntry(pid, startTicks);
+      entry.name = new String(this.buffer, this.commStart, this.commEnd - this.commStart, StandardCharsets.UTF_8);
+      entry.userId = readUserId(pid);
+      entry.user = userName(entry.userId);
+      this.entries.put(pid, entry);
+    }
+    final long cpuTime = ticksToMillis(this.statFields[UTIME] + this.statFields[STIME]);
+    entry.priority = (int) this.statFields[PRIORITY];
+    entry.virtualSize = this.statFields[VSIZE];
+    entry.residentSetSize = this.statFields[RSS] * PAGE_SIZE;
+    entry.upTime = Math.max(0L, timestamp - (this.bootTime + ticksToMillis(startTicks)));
+    if (entry.generation == this.generation - 1 && timestamp > entry.sampleTime) {
+      entry.cpuLoad = (double) (cpuTime - entry.cpuTime) / (double) (timestamp - entry.sampleTime);
+    } else {
+      // First sighting; the lifetime average is the best estimate available
+      entry.cpuLoad = entry.upTime > 0L ? (double) cpuTime / (double) entry.upTime : 0.0;
+    }
+    entry.cpuTime = cpuTime;
+    entry.sampleTime = timestamp;
+    entry.generation = this.generation;
+    return entry;
+  }
+
+  private void offer(final ProcessEntry entry) {
+    if (this.heapSize < this.limit) {
+      this.heap[this.heapSize] = entry;
+      siftUp(this.heapSize++);
+    } else if (this.limit > 0 && entry.cpuLoad > this.heap[0].cpuLoad) {
+      this.heap[0] = entry;
+      siftDown(0, this.heapSize);
+    }
+  }
+
+  private void siftUp(int index) {
+    while (index > 0) {
+      final int parent = (index - 1) >>> 1;
+      if (this.heap[index].cpuLoad >= this.heap[parent].cpuLoad) {
+        break;
+      }
+      swap(index, parent);
+      index = parent;
+    }
+  }
+
+  private void siftDown(int index, final int size) {
+    while (true) {
+      final int left = 2 * index + 1;
+      if (left >= size) {
+        break;
+      }
+      final int right = left + 1;
+      final int child = right < size && this.heap[right].cpuLoad < this.heap[left].cpuLoad ? right : left;
+      if (this.heap[index].cpuLoad <= this.heap[child].cpuLoad) {
+        break;
+      }
+      swap(index, child);
+      index = child;
+    }
+  }
+
+  private void swap(final int i, final int j) {
+    final ProcessEntry entry = this.heap[i];
+    this.heap[i] = this.heap[j];
+    this.heap[j] = entry;
+  }
+
+  private static int parsePid(final String name) {
+    int pid = 0;
+    for (int i = 0; i < name.length(); i++) {
+      final char c = name.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      pid = pid * 10 + (c - '0');
+    }
+    return pid;
+  }
+
+  private String procPath(final int pid, final String file) {
+    this.path.setLength(0);
+    return this.path.append("/proc/").append(pid).append('/').append(file).toString();
+  }
+
+  private int read(final String file) {
+    try (InputStream input = new FileInputStream(file)) {
+      int length = 0;
+      int count;
+      while (length < this.buffer.length && (count = input.read(this.buffer, length, this.buffer.length - length)) > 0) {
+        length += count;
+      }
+      return length;
+    } catch (IOException e) {
+      // The process exited while being scanned
+      return -1;
+    }
+  }
+
+  /**
+   * Reads {@code /proc/[pid]/stat} into {@link #statFields}, returning false
+   * if the process is gone.
+   */
+  private boolean readStat(final int pid) {
+    final int length = read(procPath(pid, "stat"));
+    if (length <= 0) {
+      return false;
+    }
+    // The command name may itself contain spaces and parentheses
+    int commEnd = length - 1;
+    while (commEnd > 0 && this.buffer[commEnd] != ')') {
+      commEnd--;
+    }
+    int commStart = 0;
+    while (commStart < commEnd && this.buffer[commStart] != '(') {
+      commStart++;
+    }
+    this.commStart = commStart + 1;
+    this.commEnd = commEnd;
+
+    // Field 3, the state, follows ") "; numeric fields start at 4
+    int index = commEnd + 4;
+    for (int field = 4; field <= RSS; field++) {
+      while (index < length && this.buffer[index] == ' ') {
+        index++;
+      }
+      boolean negative = false;
+      if (index < length && this.buffer[index] == '-') {
+        negative = true;
+        index++;
+      }
+      long value = 0L;
+      byte b;
+      while (index < length && (b = this.buffer[index]) >= '0' && b <= '9') {
+        value = value * 10L + (b - '0');
+        index++;
+      }
+      this.statFields[field] = negative ? -value : value;
+      if (index >= length && field < RSS) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String readUserId(final int pid) {
+    final int length = read(procPath(pid, "status"));
+    for (int i = 0; i + 4 < length; i++) {
+      if ((i == 0 || this.buffer[i - 1] == '\n') && this.buffer[i] == 'U' && this.buffer[i + 1] == 'i'
+          && this.buffer[i + 2] == 'd' && this.buffer[i + 3] == ':') {
+        int start = i + 4;
+        while (start < length && (this.buffer[start] == '\t' || this.buffer[start] == ' ')) {
+          start++;
+        }
+        int end = start;
+        while (end < length && this.buffer[end] >= '0' && this.buffer[end] <= '9') {
+          end++;
+        }
+        return new String(this.buffer, start, end - start, StandardCharsets.US_ASCII);
+      }
+    }
+    return "";
+  }
+
+  private String userName(final String userId) {
+    String user = this.userNames.get(userId);
+    if (user == null) {
+      // Pick up accounts created since startup, once per unknown uid
+      loadUserNames();
+      user = this.userNames.get(userId);
+      if (user == null) {
+        user = userId;
+        this.userNames.put(userId, user);
+      }
+    }
+    return user;
+  }
+
+  private void loadUserNames() {
+    try (BufferedReader reader = new BufferedReader(new FileReader("/etc/passwd", StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final String[] fields = line.split(":");
+        if (fields.length > 2) {
+          this.userNames.put(fields[2], fields[0]);
+        }
+      }
+    } catch (IOException e) {
+      // Fall back to reporting numeric user ids
+    }
+  }
+
+  private long readBootTime() {
+    try (BufferedReader reader = new BufferedReader(new FileReader("/proc/stat", StandardCharsets.US_ASCII))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("btime ")) {
+          return Long.parseLong(line.substring(6).trim()) * 1000L;
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // Uptimes are then relative to the epoch
+    }
+    return 0L;
+  }
+
+  private static long sysconf(final LongSupplier value, final String property, final String fallback) {
+    try {
+      final long result = value.getAsLong();
+      if (result > 0L) {
+        return result;
+      }
+    } catch (Throwable e) {
+      System.err.println("Unable to read " + property + " from the system: " + e);
+    }
+    return Long.parseLong(System.getProperty(property, fallback));
+  }
+
+  private static long ticksToMillis(final long ticks) {
+    return ticks * 1000L / CLOCK_TICKS;
+  }
+
+  static final class ProcessEntry {
+
+    final int pid;
+    final long startTicks;
+    String name;
+    String user;
+    String userId;
+    // Scan that last saw the process; never one before the first scan
+    long generation = -1L;
+    long cpuTime;
+    long sampleTime;
+    int priority;
+    long virtualSize;
+    long residentSetSize;
+    long upTime;
+    double cpuLoad;
+
+    ProcessEntry(final int pid, final long startTicks) {
+      this.pid = pid;
+      this.startTicks = startTicks;
+    }
+
+    Value toValue(final long timestamp) {
+      return Record.create(10)
+              .slot("timestamp", timestamp)
+              .slot("pid", this.pid)
+              .slot("name", this.name)
+              .slot("user", this.user)
+              .slot("user_id", this.userId)
+              .slot("priority", this.priority)
+              .slot("virtual_size", this.virtualSize)
+              .slot("rss", this.residentSetSize)
+              .slot("cpu_load", this.cpuLoad)
+              .slot("uptime", this.upTime);
+    }
+  }
+}
@@ -0,0 +1,140 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import swim.api.ref.WarpRef;
+import swim.client.ClientRuntime;
+import swim.structure.Value;
+import swim.uri.Uri;
+import swim.uri.UriPattern;
+
+/**
+ * Simulates a fleet of machines against a local plane, sending the
+ * payloads of a {@link SyntheticMachine} for each. Reports the command
+ * throughput achieved and the end-to-end latency of the updates seen on the
+ * cluster's status lane.
+ */
+public class LoadGenerator {
+
+  private static final int MACHINES = Integer.parseInt(System.getProperty("load.machines", "100"));
+  private static final long INTERVAL = Long.parseLong(System.getProperty("load.interval", "5000"));
+  private static final int CONNECTIONS = Integer.parseInt(System.getProperty("load.connections", "1"));
+  private static final int THREADS = Integer.parseInt(System.getProperty("load.threads", "4"));
+  private static final int PROCESSES = Integer.parseInt(System.getProperty("load.processes", "30"));
+  private static final String CLUSTER_ID = System.getProperty("cluster", "default");
+  private static final int REPORT_INTERVAL_SEC = Integer.parseInt(System.getProperty("load.report.interval", "10"));
+  private static final int DURATION_SEC = Integer.parseInt(System.getProperty("load.duration", "0"));
+
+  private static final UriPattern NODE_URI_PATTERN = UriPattern.parse("/machine/:id");
+  private static final UriPattern CLUSTER_URI_PATTERN = UriPattern.parse("/cluster/:id");
+  private static final Uri ADD_SYSTEM_INFO_LANE_URI = Uri.parse("addSystemInfo");
+  private static final Uri ADD_USAGE_LANE_URI = Uri.parse("addUsage");
+  private static final Uri ADD_PROCESS_LANE_URI = Uri.parse("addProcess");
+  private static final Uri STATUS_LANE_URI = Uri.parse("status");
+
+  private static final LongAdder commandCount = new LongAdder();
+  private static final LongAdder updateCount = new LongAdder();
+  private static final LongAdder totalLatency = new LongAdder();
+  private static final AtomicLong maxLatency = new AtomicLong();
+  private static volatile Value clusterStatus = Value.absent();
+
+  public static void main(String[] args) throws InterruptedException {
+    final Uri hostUri = SwimMonitorClient.HOST_URI;
+    final ClientRuntime[] clients = new ClientRuntime[Math.max(1, CONNECTIONS)];
+    for (int i = 0; i < clients.length; i++) {
+      clients[i] = new ClientRuntime();
+      clients[i].start();
+    }
+
+    clients[0].downlinkValue()
+            .hostUri(hostUri)
+            .nodeUri(CLUSTER_URI_PATTERN.apply(CLUSTER_ID))
+            .laneUri(STATUS_LANE_URI)
+            .didSet(LoadGenerator::didSetClusterStatus)
+            .open();
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    final ScheduledExecutorService executor = Executors.newScheduledThreadPool(THREADS, runnable ->
+            new Thread(runnable, "load-" + threadCount.incrementAndGet()));
+    for (int i = 0; i < MACHINES; i++) {
+      final WarpRef client = clients[i % clients.length];
+      final Uri nodeUri = NODE_URI_PATTERN.apply("load-" + i);
+      final SyntheticMachine machine = new SyntheticMachine(i, PROCESSES);
+      command(client, hostUri, nodeUri, ADD_SYSTEM_INFO_LANE_URI, machine.systemInfo(System.currentTimeMillis(), CLUSTER_ID));
+      // Spread the fleet evenly over the interval rather than pulsing every machine at once
+      executor.scheduleAtFixedRate(() -> pulse(client, hostUri, nodeUri, machine),
+                                   i * INTERVAL / MACHINES, INTERVAL, TimeUnit.MILLISECONDS);
+    }
+    System.out.println("Simulating " + MACHINES + " machines every " + INTERVAL + "ms over "
+            + clients.length + " connection(s) to " + hostUri);
+
+    final long start = System.currentTimeMillis();
+    long lastReport = start;
+    while (DURATION_SEC <= 0 || System.currentTimeMillis() - start < DURATION_SEC * 1000L) {
+      Thread.sleep(REPORT_INTERVAL_SEC * 1000L);
+      final long now = System.currentTimeMillis();
+      report(now - lastReport);
+      lastReport = now;
+    }
+
+    executor.shutdownNow();
+    for (ClientRuntime client : clients) {
+      client.stop();
+    }
+  }
+
+  private static void pulse(final WarpRef warpRef, final Uri hostUri, final Uri nodeUri, final SyntheticMachine machine) {
+    final long timestamp = System.currentTimeMillis();
+    command(warpRef, hostUri, nodeUri, ADD_PROCESS_LANE_URI, machine.processes(timestamp));
+    command(warpRef, hostUri, nodeUri, ADD_USAGE_LANE_URI, machine.usage(timestamp));
+  }
+
+  private static void command(final WarpRef warpRef, final Uri hostUri, final Uri nodeUri, final Uri laneUri, final Value body) {
+    warpRef.command(hostUri, nodeUri, laneUri, body);
+    commandCount.increment();
+  }
+
+  private static void didSetClusterStatus(final Value newValue, final Value oldValue) {
+    final long timestamp = newValue.get("timestamp").longValue(0L);
+    if (timestamp > 0L) {
+      final long latency = System.currentTimeMillis() - timestamp;
+      updateCount.increment();
+      totalLatency.add(latency);
+      maxLatency.accumulateAndGet(latency, Math::max);
+    }
+    clusterStatus = newValue;
+  }
+
+  private static void report(final long elapsed) {
+    final long commands = commandCount.sumThenReset();
+    final long updates = updateCount.sumThenReset();
+    final long latency = totalLatency.sumThenReset();
+    final long max = maxLatency.getAndSet(0L);
+    final Value status = clusterStatus;
+    System.out.println("commands/s=" + (commands * 1000L / Math.max(1L, elapsed))
+            + " target/s=" + (2L * MACHINES * 1000L / INTERVAL)
+            + " clusterUpdates=" + updates
+            + " meanLatencyMs=" + (updates == 0L ? 0L : latency / updates)
+            + " maxLatencyMs=" + max
+            + " machineCount=" + status.get("machine_count").intValue(0)
+            + " serverLatencyMs=" + status.get("average_latency").longValue(0L));
+  }
+}
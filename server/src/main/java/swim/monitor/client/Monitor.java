@@ -16,17 +16,20 @@ package swim.monitor.client;
 
 import oshi.SystemInfo;
 import swim.api.ref.WarpRef;
+import swim.structure.Value;
 import swim.uri.Uri;
 
 public abstract class Monitor {
 
   protected final SystemInfo systemInfo;
   protected final WarpRef warpRef;
-  private final long pulseInterval;
+  private volatile long pulseInterval;
   protected final Uri hostUri;
   protected final Uri nodeUri;
   protected final Uri laneUri;
-  private static final long START_PAUSE = 5000L;
+  // Set when commands go through a collector gateway rather than straight to the server
+  private RelayConnection relay;
+  static final long START_PAUSE = 5000L;
 
   public Monitor(final WarpRef warpRef, final SystemInfo systemInfo, final long pulseInterval, final Uri hostUri, final Uri nodeUri, final Uri laneUri) {
     this.warpRef = warpRef;
@@ -37,19 +40,34 @@ public abstract class Monitor {
     this.laneUri = laneUri;
   }
 
-  public void monitor() {
-    sleep(START_PAUSE);
-    do {
-      pulse();
-      sleep(pulseInterval);
-    } while (true);
+  public long pulseInterval() {
+    return pulseInterval;
   }
 
-  private void sleep(long duration) {
-    try {
-      Thread.sleep(duration);
-    } catch (Exception e) {
+  /**
+   * Changes the delay before the pulse following the one in progress.
+   */
+  protected void setPulseInterval(final long pulseInterval) {
+    this.pulseInterval = pulseInterval;
+  }
+
+  public Uri nodeUri() {
+    return nodeUri;
+  }
+
+  public RelayConnection relay() {
+    return relay;
+  }
+
+  protected void setRelay(final RelayConnection relay) {
+    this.relay = relay;
+  }
 
+  protected void send(final Uri laneUri, final Value body) {
+    if (relay != null) {
+      relay.command(nodeUri, laneUri, body);
+    } else {
+      warpRef.command(hostUri, nodeUri, laneUri, body);
     }
   }
 
@@ -0,0 +1,135 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs monitor pulses at fixed rates on dedicated threads, so collection
+ * never occupies the client runtime's stages. Each pulse is scheduled
+ * against an absolute deadline, so the time a pulse takes doesn't push
+ * back the ones after it.
+ */
+public class MonitorScheduler {
+
+  private static final String THREADS_STR = System.getProperty("monitor.threads", "2");
+  private static final int THREADS = Integer.parseInt(THREADS_STR);
+  private static final String STATS_INTERVAL_SEC_STR = System.getProperty("monitor.stats.interval", "300");
+  private static final int STATS_INTERVAL_SEC = Integer.parseInt(STATS_INTERVAL_SEC_STR);
+
+  private final ScheduledExecutorService executor;
+  private final CopyOnWriteArrayList<Task> tasks = new CopyOnWriteArrayList<>();
+
+  public MonitorScheduler() {
+    final AtomicInteger threadCount = new AtomicInteger();
+    this.executor = Executors.newScheduledThreadPool(THREADS, runnable -> {
+      final Thread thread = new Thread(runnable, "monitor-" + threadCount.incrementAndGet());
+      thread.setPriority(Thread.NORM_PRIORITY - 1);
+      return thread;
+    });
+    if (STATS_INTERVAL_SEC > 0) {
+      this.executor.scheduleAtFixedRate(this::reportStats, STATS_INTERVAL_SEC, STATS_INTERVAL_SEC, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Starts pulsing the monitor every {@link Monitor#pulseInterval()}
+   * milliseconds, after an initial delay.
+   */
+  public void schedule(final Monitor monitor, final long initialDelay) {
+    final Task task = new Task(monitor, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(initialDelay));
+    this.tasks.add(task);
+    task.scheduleNext();
+  }
+
+  public void stop() {
+    this.executor.shutdownNow();
+  }
+
+  private void reportStats() {
+    for (Task task : this.tasks) {
+      System.out.println(task.stats());
+    }
+  }
+
+  final class Task implements Runnable {
+
+    final Monitor monitor;
+    long deadline;
+
+    // Statistics, written by the pulsing thread only
+    volatile long pulseCount;
+    volatile long overrunCount;
+    volatile long totalJitter;
+    volatile long maxJitter;
+    volatile long maxDuration;
+
+    Task(final Monitor monitor, final long deadline) {
+      this.monitor = monitor;
+      this.deadline = deadline;
+    }
+
+    void scheduleNext() {
+      if (!MonitorScheduler.this.executor.isShutdown()) {
+        MonitorScheduler.this.executor.schedule(this, this.deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      }
+    }
+
+    @Override
+    public void run() {
+      final long start = System.nanoTime();
+      final long jitter = start - this.deadline;
+      try {
+        this.monitor.pulse();
+      } catch (Throwable e) {
+        // Keep pulsing; a failed collection, even a linkage error from a native library, shouldn't stop the monitor
+        System.err.println(this.monitor.getClass().getSimpleName() + " pulse failed");
+        e.printStackTrace();
+      }
+      final long end = System.nanoTime();
+      final long duration = end - start;
+      final long interval = TimeUnit.MILLISECONDS.toNanos(this.monitor.pulseInterval());
+
+      this.pulseCount++;
+      this.totalJitter += jitter;
+      this.maxJitter = Math.max(this.maxJitter, jitter);
+      this.maxDuration = Math.max(this.maxDuration, duration);
+
+      this.deadline += interval;
+      if (this.deadline < end) {
+        // Skip the pulses that were missed instead of running them back to back
+        final long missed = (end - this.deadline) / interval + 1;
+        this.overrunCount += missed;
+        this.deadline += missed * interval;
+      }
+      scheduleNext();
+    }
+
+    String stats() {
+      final long pulseCount = this.pulseCount;
+      final long meanJitter = pulseCount == 0L ? 0L : this.totalJitter / pulseCount;
+      return this.monitor.getClass().getSimpleName()
+              + ": pulses=" + pulseCount
+              + " overruns=" + this.overrunCount
+              + " meanJitterMs=" + TimeUnit.NANOSECONDS.toMillis(meanJitter)
+              + " maxJitterMs=" + TimeUnit.NANOSECONDS.toMillis(this.maxJitter)
+              + " maxPulseMs=" + TimeUnit.NANOSECONDS.toMillis(this.maxDuration);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.io.File;
+import swim.api.ref.WarpRef;
+import swim.structure.Record;
+import swim.uri.Uri;
+
+/**
+ * Reports the traffic of every network interface but loopback, and their
+ * totals, from {@code /proc/net/dev}.
+ */
+public class NetworkMonitor extends Monitor {
+
+  private static final String NET_DEV = "/proc/net/dev";
+  private static final Uri LANE_URI = Uri.parse("addNetwork");
+
+  // Counters following the interface name, numbered from 0
+  private static final int RX_BYTES = 0;
+  private static final int RX_PACKETS = 1;
+  private static final int RX_ERRORS = 2;
+  private static final int RX_DROPS = 3;
+  private static final int TX_BYTES = 8;
+  private static final int TX_PACKETS = 9;
+  private static final int TX_ERRORS = 10;
+  private static final int TX_DROPS = 11;
+
+  private final ProcFile netDev = ProcFile.open(NET_DEV);
+  private final CounterTable interfaces = new CounterTable(TX_DROPS + 1, name -> !"lo".equals(name));
+  private long lastSample;
+
+  public NetworkMonitor(final WarpRef warpRef, final Uri hostUri, final Uri nodeUri, final long pulseInterval,
+                        final RelayConnection relay) {
+    super(warpRef, null, pulseInterval, hostUri, nodeUri, LANE_URI);
+    setRelay(relay);
+  }
+
+  public static boolean isSupported() {
+    return new File(NET_DEV).canRead();
+  }
+
+  @Override
+  public void pulse() {
+    final long now = System.nanoTime();
+    if (this.netDev == null || !this.netDev.read()) {
+      return;
+    }
+    this.interfaces.startSample();
+    // The first two lines are headers
+    this.netDev.nextLine();
+    while (this.netDev.nextLine()) {
+      // Large counters may follow the colon without a space
+      if (this.netDev.nextToken((byte) ':')) {
+        final int iface = this.interfaces.device(this.netDev.buffer(), this.netDev.tokenStart(), this.netDev.tokenEnd());
+        for (int field = 0; iface >= 0 && field <= TX_DROPS; field++) {
+          this.interfaces.set(iface, field, this.netDev.nextLong());
+        }
+      }
+    }
+
+    final double seconds = (now - this.lastSample) / 1.0e9;
+    this.lastSample = now;
+    if (seconds <= 0.0) {
+      return;
+    }
+    final Record devices = Record.create();
+    double rxBytes = 0.0;
+    double txBytes = 0.0;
+    double rxPackets = 0.0;
+    double txPackets = 0.0;
+    double errors = 0.0;
+    double drops = 0.0;
+    for (int iface = 0; iface < this.interfaces.size(); iface++) {
+      if (this.interfaces.hasRate(iface)) {
+        final double ifaceRxBytes = this.interfaces.rate(iface, RX_BYTES, seconds);
+        final double ifaceTxBytes = this.interfaces.rate(iface, TX_BYTES, seconds);
+        final double ifaceRxPackets = this.interfaces.rate(iface, RX_PACKETS, seconds);
+        final double ifaceTxPackets = this.interfaces.rate(iface, TX_PACKETS, seconds);
+        final double ifaceErrors = this.interfaces.rate(iface, RX_ERRORS, seconds) + this.interfaces.rate(iface, TX_ERRORS, seconds);
+        final double ifaceDrops = this.interfaces.rate(iface, RX_DROPS, seconds) + this.interfaces.rate(iface, TX_DROPS, seconds);
+        devices.slot(this.interfaces.label(iface), Record.create(6)
+                .slot("rx_bytes", ifaceRxBytes)
+                .slot("tx_bytes", ifaceTxBytes)
+                .slot("rx_packets", ifaceRxPackets)
+                .slot("tx_packets", ifaceTxPackets)
+                .slot("errors", ifaceErrors)
+                .slot("drops", ifaceDrops));
+        rxBytes += ifaceRxBytes;
+        txBytes += ifaceTxBytes;
+        rxPackets += ifaceRxPackets;
+        txPackets += ifaceTxPackets;
+        errors += ifaceErrors;
+        drops += ifaceDrops;
+      }
+    }
+    if (devices.isEmpty()) {
+      return;
+    }
+    send(LANE_URI, Record.create(8)
+            .slot("timestamp", System.currentTimeMillis())
+            .slot("rx_bytes", rxBytes)
+            .slot("tx_bytes", txBytes)
+            .slot("rx_packets", rxPackets)
+            .slot("tx_packets", txPackets)
+            .slot("errors", errors)
+            .slot("drops", drops)
+            .slot("interfaces", devices));
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.util.List;
+import oshi.SystemInfo;
+import oshi.software.os.OSProcess;
+import swim.monitor.util.IntObjectHashMap;
+import swim.structure.Record;
+import swim.structure.Value;
+
+import static oshi.software.os.OperatingSystem.ProcessFiltering.ALL_PROCESSES;
+import static oshi.software.os.OperatingSystem.ProcessSorting.NO_SORTING;
+
+/**
+ * Portable process collector backed by OSHI, ranking processes by the CPU
+ * they used since the previous collection. Not thread-safe.
+ */
+public class OshiProcessCollector implements ProcessCollector {
+
+  private final SystemInfo systemInfo;
+  private final int limit;
+  private final OSProcess[] top;
+  private final double[] topLoads;
+  // Snapshots of the previous collection, swapped every pulse so exited pids drop out
+  private IntObjectHashMap<OSProcess> priorProcesses = new IntObjectHashMap<>(1024);
+  private IntObjectHashMap<OSProcess> currentProcesses = new IntObjectHashMap<>(1024);
+
+  public OshiProcessCollector(final SystemInfo systemInfo, final int limit) {
+    this.systemInfo = systemInfo;
+    this.limit = limit;
+    this.top = new OSProcess[limit];
+    this.topLoads = new double[limit];
+  }
+
+  @Override
+  public Record collect(final long timestamp) {
+    final List<OSProcess> processes = this.systemInfo.getOperatingSystem().getProcesses(ALL_PROCESSES, NO_SORTING, 0);
+    int topCount = 0;
+    for (final OSProcess process : processes) {
+      // Falls back to the cumulative load for processes without a prior snapshot
+      final double load = process.getProcessCpuLoadBetweenTicks(this.priorProcesses.get(process.getProcessID()));
+      this.currentProcesses.put(process.getProcessID(), process);
+      if (topCount < this.limit || load > this.topLoads[topCount - 1]) {
+        // Insertion into the small, descending top array
+        int index = topCount < this.limit ? topCount++ : topCount - 1;
+        while (index > 0 && this.topLoads[index - 1] < load) {
+          this.top[index] = this.top[index - 1];
+          this.topLoads[index] = this.topLoads[index - 1];
+          index--;
+        }
+        this.top[index] = process;
+        this.topLoads[index] = load;
+      }
+    }
+
+    final IntObjectHashMap<OSProcess> priorProcesses = this.priorProcesses;
+    this.priorProcesses = this.currentProcesses;
+    priorProcesses.clear();
+    this.currentProcesses = priorProcesses;
+
+    final Record processStatus = Record.create(topCount);
+    for (int i = 0; i < topCount; i++) {
+      processStatus.add(getProcessInfo(this.top[i], this.topLoads[i], timestamp));
+      this.top[i] = null;
+    }
+    return processStatus;
+  }
+
+  private Value getProcessInfo(final OSProcess process, final double cpuLoad, final long timestamp) {
+    return Record.create(10)
+            .slot("timestamp", timestamp)
+            .slot("pid", process.getProcessID())
+            .slot("name", process.getName())
+            .slot("user", process.getUser())
+            .slot("user_id", process.getUserID())
+            .slot("priority", process.getPriority())
+            .slot("virtual_size", process.getVirtualSize())
+            .slot("rss", process.getResidentSetSize())
+            .slot("cpu_load", cpuLoad)
+            .slot("uptime", process.getUpTime());
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.io.File;
+import swim.api.ref.WarpRef;
+import swim.structure.Record;
+import swim.uri.Uri;
+
+/**
+ * Reports the share of time that some, or all, non-idle tasks were stalled
+ * on CPU, memory and I/O over each interval, from the cumulative stall
+ * totals of the kernel's pressure stall information in {@code /proc/pressure}.
+ */
+public class PressureMonitor extends Monitor {
+
+  private static final String PRESSURE_DIR = "/proc/pressure/";
+  private static final String[] RESOURCES = {"cpu", "memory", "io"};
+  private static final Uri LANE_URI = Uri.parse("addPressure");
+
+  private final ProcFile[] files = new ProcFile[RESOURCES.length];
+  // Microseconds stalled, "some" then "full" for each resource
+  private long[] current = new long[2 * RESOURCES.length];
+  private long[] previous = new long[2 * RESOURCES.length];
+  private long lastSample;
+
+  public PressureMonitor(final WarpRef warpRef, final Uri hostUri, final Uri nodeUri, final long pulseInterval,
+                         final RelayConnection relay) {
+    super(warpRef, null, pulseInterval, hostUri, nodeUri, LANE_URI);
+    setRelay(relay);
+    for (int i = 0; i < RESOURCES.length; i++) {
+      this.files[i] = ProcFile.open(PRESSURE_DIR + RESOURCES[i]);
+    }
+  }
+
+  public static boolean isSupported() {
+    return new File(PRESSURE_DIR + "cpu").canRead();
+  }
+
+  @Override
+  public void pulse() {
+    final long now = System.nanoTime();
+    final long[] totals = this.previous;
+    this.previous = this.current;
+    this.current = totals;
+    for (int i = 0; i < RESOURCES.length; i++) {
+      totals[2 * i] = 0L;
+      totals[2 * i + 1] = 0L;
+      final ProcFile file = this.files[i];
+      if (file != null && file.read()) {
+        do {
+          if (file.nextToken()) {
+            final int slot = file.tokenEquals("full") ? 2 * i + 1 : 2 * i;
+            while (file.nextToken()) {
+              if (file.tokenStartsWith("total=")) {
+                totals[slot] = file.tokenLong(6);
+              }
+            }
+          }
+        } while (file.nextLine());
+      }
+    }
+
+    final double seconds = (now - this.lastSample) / 1.0e9;
+    final boolean first = this.lastSample == 0L;
+    this.lastSample = now;
+    if (first || seconds <= 0.0) {
+      return;
+    }
+    final Record pressure = Record.create(RESOURCES.length + 1)
+            .slot("timestamp", System.currentTimeMillis());
+    for (int i = 0; i < RESOURCES.length; i++) {
+      if (this.files[i] != null) {
+        pressure.slot(RESOURCES[i], Record.create(2)
+                .slot("some", stallPercentage(2 * i, seconds))
+                .slot("full", stallPercentage(2 * i + 1, seconds)));
+      }
+    }
+    send(LANE_URI, pressure);
+  }
+
+  private double stallPercentage(final int slot, final double seconds) {
+    final long stalled = this.current[slot] - this.previous[slot];
+    return stalled > 0L ? Math.min(100.0, stalled / seconds / 1.0e4) : 0.0;
+  }
+}
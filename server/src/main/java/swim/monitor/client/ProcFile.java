@@ -0,0 +1,160 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A {@code /proc} file kept open and re-read from the start into a reused
+ * buffer, with a cursor for scanning its whitespace separated tokens, so
+ * that polling it allocates nothing once the buffer fits the file. Not
+ * thread-safe.
+ */
+final class ProcFile {
+
+  private final RandomAccessFile file;
+  private byte[] buffer = new byte[4096];
+  private int length;
+  private int index;
+  private int tokenStart;
+  private int tokenEnd;
+
+  private ProcFile(final RandomAccessFile file) {
+    this.file = file;
+  }
+
+  /**
+   * Returns the file at the given path, or null if it can't be read.
+   */
+  static ProcFile open(final String path) {
+    try {
+      return new ProcFile(new RandomAccessFile(path, "r"));
+    } catch (IOException | SecurityException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Reads the current contents of the file and moves the cursor to its start.
+   */
+  boolean read() {
+    try {
+      this.file.seek(0L);
+      int length = 0;
+      int count;
+      while ((count = this.file.read(this.buffer, length, this.buffer.length - length)) > 0) {
+        length += count;
+        if (length == this.buffer.length) {
+          final byte[] buffer = new byte[this.buffer.length * 2];
+          System.arraycopy(this.buffer, 0, buffer, 0, length);
+          this.buffer = buffer;
+        }
+      }
+      this.length = length;
+      this.index = 0;
+      return true;
+    } catch (IOException e) {
+      this.length = 0;
+      this.index = 0;
+      return false;
+    }
+  }
+
+  byte[] buffer() {
+    return this.buffer;
+  }
+
+  /**
+   * Moves the cursor past the end of the current line, returning false at the end of the file.
+   */
+  boolean nextLine() {
+    while (this.index < this.length && this.buffer[this.index] != '\n') {
+      this.index++;
+    }
+    if (this.index < this.length) {
+      this.index++;
+    }
+    return this.index < this.length;
+  }
+
+  /**
+   * Moves the cursor over the next token on the current line, which ends at
+   * a space or at the given delimiter, returning false if there's none.
+   */
+  boolean nextToken(final byte delimiter) {
+    while (this.index < this.length && this.buffer[this.index] == ' ') {
+      this.index++;
+    }
+    this.tokenStart = this.index;
+    byte b;
+    while (this.index < this.length && (b = this.buffer[this.index]) != ' ' && b != '\n' && b != delimiter) {
+      this.index++;
+    }
+    this.tokenEnd = this.index;
+    if (this.index < this.length && this.buffer[this.index] == delimiter) {
+      this.index++;
+    }
+    return this.tokenEnd > this.tokenStart;
+  }
+
+  boolean nextToken() {
+    return nextToken((byte) ' ');
+  }
+
+  int tokenStart() {
+    return this.tokenStart;
+  }
+
+  int tokenEnd() {
+    return this.tokenEnd;
+  }
+
+  boolean tokenEquals(final String token) {
+    return tokenStartsWith(token) && this.tokenEnd - this.tokenStart == token.length();
+  }
+
+  boolean tokenStartsWith(final String prefix) {
+    if (this.tokenEnd - this.tokenStart < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (this.buffer[this.tokenStart + i] != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses the digits of the current token, after skipping the given number
+   * of characters of it, e.g. 6 for {@code total=123}.
+   */
+  long tokenLong(final int skip) {
+    long value = 0L;
+    byte b;
+    for (int i = this.tokenStart + skip; i < this.tokenEnd && (b = this.buffer[i]) >= '0' && b <= '9'; i++) {
+      value = value * 10L + (b - '0');
+    }
+    return value;
+  }
+
+  /**
+   * Parses the next token on the current line as a number, 0 if there's none.
+   */
+  long nextLong() {
+    return nextToken() ? tokenLong(0) : 0L;
+  }
+}
@@ -16,38 +16,110 @@ package swim.monitor.client;
 
 import oshi.SystemInfo;
 import oshi.hardware.PowerSource;
-import oshi.software.os.OSProcess;
 import swim.api.ref.WarpRef;
+import swim.structure.Item;
 import swim.structure.Record;
 import swim.structure.Value;
 import swim.uri.Uri;
 import swim.uri.UriPattern;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
-import static oshi.software.os.OperatingSystem.ProcessFiltering.ALL_PROCESSES;
-import static oshi.software.os.OperatingSystem.ProcessSorting.CPU_DESC;
-
 public class ProcessMonitor extends Monitor {
 
   private static final String PULSE_INTERVAL_SEC_STR = System.getProperty("process.interval", "5");
   private static final int PULSE_INTERVAL_SEC = Integer.parseInt(PULSE_INTERVAL_SEC_STR);
 
+  private static final String CLUSTER_ID = System.getProperty("cluster", "default");
+
+  // Send only changed fields between keyframes, every n pulses and on reconnect
+  private static final boolean DELTA_MODE = Boolean.parseBoolean(System.getProperty("process.delta", "false"));
+  private static final int KEYFRAME_INTERVAL = Integer.parseInt(System.getProperty("process.keyframe.interval", "12"));
+
+  private static final int TOP_PROCESS_COUNT = 30;
+  // Scan /proc directly where available instead of having OSHI populate every process
+  private static final boolean PROC_COLLECTOR = Boolean.parseBoolean(System.getProperty("process.proc", "true"));
+
+  // Spool samples to a memory-mapped file while disconnected, replaying a batch per pulse once reconnected
+  private static final int SPOOL_SIZE_KB = Integer.parseInt(System.getProperty("monitor.spool.size", "4096"));
+  // Defaults to a file per machine in the temp directory; each file is locked by the client using it
+  private static final String SPOOL_FILE = System.getProperty("monitor.spool.file");
+  private static final int SPOOL_BATCH_SIZE = Integer.parseInt(System.getProperty("monitor.spool.batch", "100"));
+
+  // Pulse faster while the machine changes quickly and slower while it's quiet or the server is under
+  // pressure, between process.interval.min and process.interval.max seconds
+  private static final boolean ADAPTIVE = Boolean.parseBoolean(System.getProperty("process.adaptive", "false"));
+  private static final int PULSE_INTERVAL_MIN_SEC = Integer.parseInt(System.getProperty("process.interval.min", "1"));
+  private static final int PULSE_INTERVAL_MAX_SEC = Integer.parseInt(System.getProperty("process.interval.max", "30"));
+  // Round trips of a sample beyond this many milliseconds slow pulses down in proportion
+  private static final long RTT_BUDGET = Long.parseLong(System.getProperty("process.rtt.budget", "1000"));
+  // Changes between pulses that are significant: load in percentage points, available memory as a
+  // fraction of the total, and the fraction of top processes replaced
+  private static final double LOAD_CHANGE = 10.0;
+  private static final double MEMORY_CHANGE = 0.05;
+  private static final double TOP_PROCESS_CHANGE = 0.3;
+  private static final double RTT_WEIGHT = 0.2;
+
   private static final UriPattern NODE_URI_PATTERN = UriPattern.parse("/machine/:id");
   private static final Uri LANE_URI = Uri.parse("addProcess");
+  private static final Uri SYSTEM_INFO_LANE_URI = Uri.parse("systemInfo");
+  private static final Uri REPLAY_USAGE_LANE_URI = Uri.parse("replayUsage");
+  private static final Uri PULSE_HINT_LANE_URI = Uri.parse("pulseHint");
 
   // Not thread-safe
   private long[] prevTicks;
   private Value osSystemInfo;
   private Value hwSystemInfo;
+  private final ProcessCollector processCollector;
+  private final DeltaEncoder deltaEncoder = new DeltaEncoder()
+          .relative("available", 0.01)
+          .relative("swap_used", 0.01)
+          .relative("virtual_in_use", 0.01)
+          .relative("current_frequency", 0.05)
+          .absolute("average_system_load", 1.0)
+          .absolute("temperature", 0.5)
+          .absolute("uptime", 60000.0)
+          .absolute("thread_count", 5.0)
+          .absolute("cpu_load", 0.005)
+          .relative("rss", 0.01);
+  private int pulsesSinceKeyframe;
+  // Set from the client's stage when the connection to the server is re-established
+  private volatile boolean keyframeRequested = true;
+  private volatile boolean connected;
+  private final SpoolFile spool;
+  private final AdaptiveInterval adaptiveInterval;
+  private double prevLoad = Double.NaN;
+  private double prevAvailable = Double.NaN;
+  private int[] topPids = new int[TOP_PROCESS_COUNT];
+  private int[] prevTopPids = new int[TOP_PROCESS_COUNT];
+  private int topPidCount;
+  private int prevTopPidCount;
+  // Set from the client's stage by the server's pulse hints
+  private volatile double serverPressure = 1.0;
+  private volatile double roundTripTime;
 
   public ProcessMonitor(final WarpRef warpRef, final Uri hostUri, final SystemInfo systemInfo) {
+    this(warpRef, hostUri, systemInfo, null);
+  }
+
+  public ProcessMonitor(final WarpRef warpRef, final Uri hostUri, final SystemInfo systemInfo, final String relayAddress) {
     super(warpRef, systemInfo, PULSE_INTERVAL_SEC * 1000L,
           hostUri,
           NODE_URI_PATTERN.apply(systemInfo.getOperatingSystem().getNetworkParams().getHostName()),
           LANE_URI);
 
     prevTicks = systemInfo.getHardware().getProcessor().getSystemCpuLoadTicks();
+    processCollector = PROC_COLLECTOR && LinuxProcessCollector.isSupported()
+      ? new LinuxProcessCollector(TOP_PROCESS_COUNT)
+      : new OshiProcessCollector(systemInfo, TOP_PROCESS_COUNT);
+    spool = SPOOL_SIZE_KB > 0 ? openSpool(nodeUri) : null;
+    adaptiveInterval = ADAPTIVE
+      ? new AdaptiveInterval(PULSE_INTERVAL_MIN_SEC * 1000L, PULSE_INTERVAL_MAX_SEC * 1000L, PULSE_INTERVAL_SEC * 1000L)
+      : null;
 
     Value memory = Record.create(1)
       .slot("total", systemInfo.getHardware().getMemory().getTotal());
@@ -71,40 +143,173 @@ public class ProcessMonitor extends Monitor {
         .slot("logical_count", systemInfo.getHardware().getProcessor().getLogicalProcessorCount()))
       .slot("memory", memory);
 
-    Value record = Record.create(3)
+    if (relayAddress != null) {
+      // The gateway resends the system info it has seen when its own connection to the server is re-established
+      setRelay(new RelayConnection(relayAddress, this::didConnect, this::didDisconnect));
+      return;
+    }
+    // Resend system info whenever the connection is (re-)established, so a restarted server recovers it
+    this.warpRef.downlinkValue()
+            .hostUri(hostUri)
+            .nodeUri(nodeUri)
+            .laneUri(SYSTEM_INFO_LANE_URI)
+            .keepLinked(true)
+            .keepSynced(false)
+            .didConnect(this::didConnect)
+            .didDisconnect(this::didDisconnect)
+            .open();
+    if (adaptiveInterval != null) {
+      this.warpRef.downlinkValue()
+              .hostUri(hostUri)
+              .nodeUri(nodeUri)
+              .laneUri(PULSE_HINT_LANE_URI)
+              .keepLinked(true)
+              .keepSynced(false)
+              .didSet((nv, ov) -> didReceivePulseHint(nv))
+              .open();
+    }
+  }
+
+  private static SpoolFile openSpool(final Uri nodeUri) {
+    final Path path = SPOOL_FILE != null ? Paths.get(SPOOL_FILE)
+        : Paths.get(System.getProperty("java.io.tmpdir"),
+                    "swim-monitor" + nodeUri.toString().replaceAll("[^A-Za-z0-9.-]", "_") + ".spool");
+    try {
+      return new SpoolFile(path, SPOOL_SIZE_KB * 1024);
+    } catch (IOException e) {
+      System.err.println("Samples won't be spooled while disconnected: " + e);
+      return null;
+    }
+  }
+
+  private void didConnect() {
+    Value record = Record.create(4)
       .slot("timestamp", System.currentTimeMillis())
+      .slot("cluster_id", CLUSTER_ID)
       .slot("os", osSystemInfo)
       .slot("hardware", hwSystemInfo);
 
-    this.warpRef.command(hostUri, nodeUri, Uri.parse("addSystemInfo"), record);
+    send(Uri.parse("addSystemInfo"), record);
+    this.keyframeRequested = true;
+    this.serverPressure = 1.0;
+    this.roundTripTime = 0.0;
+    this.connected = true;
+  }
+
+  // Echoes the timestamp of the latest sample the machine agent processed, and the server's pressure
+  private void didReceivePulseHint(final Value hint) {
+    final long timestamp = hint.get("timestamp").longValue(0L);
+    if (timestamp > 0L) {
+      final double sample = System.currentTimeMillis() - timestamp;
+      this.roundTripTime = this.roundTripTime == 0.0 ? sample : this.roundTripTime + RTT_WEIGHT * (sample - this.roundTripTime);
+    }
+    this.serverPressure = hint.get("pressure").doubleValue(1.0);
+  }
+
+  private void didDisconnect() {
+    this.connected = false;
   }
 
   @Override
   public void pulse() {
-    final List<OSProcess> processes = systemInfo.getOperatingSystem().getProcesses(ALL_PROCESSES, CPU_DESC, 30);
+    if (relay() != null) {
+      relay().ensureConnected();
+    }
     final long timestamp = System.currentTimeMillis();
-    Record processStatus = Record.create(processes.size());
-    for (final OSProcess process : processes) {
-      processStatus.add(getProcessInfo(process, timestamp));
+    final Record processStatus = this.processCollector.collect(timestamp);
+    Value usage = getUsage(timestamp);
+    if (this.adaptiveInterval != null) {
+      adaptPulseInterval(processStatus, usage);
+      // Lets the server stretch its liveness window to match
+      usage = usage.updated("pulse_interval", pulseInterval());
     }
-    this.warpRef.command(hostUri, nodeUri, Uri.parse("addProcess"), processStatus);
 
-    Value usage = getUsage(timestamp);
-    this.warpRef.command(hostUri, nodeUri, Uri.parse("addUsage"), usage);
-  }
-
-  private Value getProcessInfo(final OSProcess process, final long timestamp) {
-    return Record.create(10)
-            .slot("timestamp", timestamp)
-            .slot("pid", process.getProcessID())
-            .slot("name", process.getName())
-            .slot("user", process.getUser())
-            .slot("user_id", process.getUserID())
-            .slot("priority", process.getPriority())
-            .slot("virtual_size", process.getVirtualSize())
-            .slot("rss", process.getResidentSetSize())
-            .slot("cpu_load", process.getProcessCpuLoadCumulative())
-            .slot("uptime", process.getUpTime());
+    if (this.spool != null && !this.connected) {
+      // Only usage is spooled; it's what statusHistory is computed from
+      this.spool.append(usage);
+      return;
+    }
+
+    if (DELTA_MODE && !isKeyframeDue()) {
+      send(Uri.parse("addProcessDelta"), this.deltaEncoder.processesDelta(processStatus, timestamp));
+      send(Uri.parse("addUsageDelta"), this.deltaEncoder.usageDelta(usage));
+    } else {
+      send(Uri.parse("addProcess"), processStatus);
+      send(Uri.parse("addUsage"), usage);
+      if (DELTA_MODE) {
+        this.deltaEncoder.processesKeyframe(processStatus);
+        this.deltaEncoder.usageKeyframe(usage);
+      }
+    }
+
+    if (this.spool != null && !this.spool.isEmpty()) {
+      replaySpool();
+    }
+  }
+
+  private void replaySpool() {
+    try {
+      send(REPLAY_USAGE_LANE_URI, this.spool.poll(SPOOL_BATCH_SIZE));
+    } catch (RuntimeException e) {
+      // Whatever is left can't be trusted; drop it rather than fail every pulse from now on
+      System.err.println("Discarding spooled samples: " + e);
+      this.spool.clear();
+    }
+  }
+
+  private void adaptPulseInterval(final Record processStatus, final Value usage) {
+    final Value hardware = usage.get("hardware");
+    final double load = hardware.get("processor").get("average_system_load").doubleValue(Double.NaN);
+    final double total = hardware.get("memory").get("total").doubleValue(0.0);
+    final double available = hardware.get("memory").get("available").doubleValue(Double.NaN);
+    double change = 0.0;
+    if (!Double.isNaN(load) && !Double.isNaN(this.prevLoad)) {
+      change = Math.max(change, Math.abs(load - this.prevLoad) / LOAD_CHANGE);
+    }
+    if (total > 0.0 && !Double.isNaN(available) && !Double.isNaN(this.prevAvailable)) {
+      change = Math.max(change, Math.abs(available - this.prevAvailable) / total / MEMORY_CHANGE);
+    }
+    change = Math.max(change, topProcessChange(processStatus) / TOP_PROCESS_CHANGE);
+    this.prevLoad = load;
+    this.prevAvailable = available;
+
+    final double pressure = Math.max(this.serverPressure, this.roundTripTime / RTT_BUDGET);
+    setPulseInterval(this.adaptiveInterval.update(change, pressure));
+  }
+
+  // Fraction of the top processes that weren't in the previous pulse's
+  private double topProcessChange(final Record processStatus) {
+    final int[] pids = this.prevTopPids;
+    this.prevTopPids = this.topPids;
+    this.prevTopPidCount = this.topPidCount;
+    this.topPids = pids;
+    int count = 0;
+    for (Item item : processStatus) {
+      if (count < pids.length) {
+        pids[count++] = item.toValue().get("pid").intValue(-1);
+      }
+    }
+    this.topPidCount = count;
+    if (count == 0 || this.prevTopPidCount == 0) {
+      return 0.0;
+    }
+    Arrays.sort(pids, 0, count);
+    int replaced = 0;
+    for (int i = 0; i < count; i++) {
+      if (Arrays.binarySearch(this.prevTopPids, 0, this.prevTopPidCount, pids[i]) < 0) {
+        replaced++;
+      }
+    }
+    return (double) replaced / count;
+  }
+
+  private boolean isKeyframeDue() {
+    if (this.keyframeRequested || ++this.pulsesSinceKeyframe >= KEYFRAME_INTERVAL) {
+      this.keyframeRequested = false;
+      this.pulsesSinceKeyframe = 0;
+      return true;
+    }
+    return false;
   }
 
   private Value getOSUtilization() {
@@ -0,0 +1,134 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import swim.recon.Recon;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+/**
+ * Connection from a monitored host to a {@link CollectorGateway}, which
+ * batches the commands of many hosts into a single stream to the server.
+ * Each command is framed as its length followed by its Recon encoding.
+ * Reconnects at most once per {@link #RECONNECT_DELAY} when the gateway
+ * is unreachable.
+ */
+public class RelayConnection {
+
+  static final long RECONNECT_DELAY = 5000L;
+  private static final int CONNECT_TIMEOUT = 1000;
+
+  private final String host;
+  private final int port;
+  private final Runnable didConnect;
+  private final Runnable didDisconnect;
+  private Socket socket;
+  private DataOutputStream output;
+  private long lastAttempt;
+
+  public RelayConnection(final String address, final Runnable didConnect, final Runnable didDisconnect) {
+    final int colon = address.lastIndexOf(':');
+    this.host = colon < 0 ? address : address.substring(0, colon);
+    this.port = colon < 0 ? CollectorGateway.DEFAULT_PORT : Integer.parseInt(address.substring(colon + 1));
+    this.didConnect = didConnect;
+    this.didDisconnect = didDisconnect;
+  }
+
+  /**
+   * Connects to the gateway unless already connected, or if a recent attempt failed.
+   */
+  public synchronized boolean ensureConnected() {
+    if (this.output != null) {
+      return true;
+    }
+    final long now = System.currentTimeMillis();
+    if (now - this.lastAttempt < RECONNECT_DELAY) {
+      return false;
+    }
+    this.lastAttempt = now;
+    try {
+      final Socket socket = new Socket();
+      socket.connect(new InetSocketAddress(this.host, this.port), CONNECT_TIMEOUT);
+      socket.setTcpNoDelay(true);
+      this.socket = socket;
+      this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    } catch (IOException e) {
+      return false;
+    }
+    this.didConnect.run();
+    return true;
+  }
+
+  public synchronized void command(final Uri nodeUri, final Uri laneUri, final Value body) {
+    if (this.output == null) {
+      return;
+    }
+    try {
+      writeFrame(this.output, Record.create(3)
+              .slot("node", nodeUri.toString())
+              .slot("lane", laneUri.toString())
+              .slot("body", body));
+      this.output.flush();
+    } catch (IOException e) {
+      close();
+      this.didDisconnect.run();
+    }
+  }
+
+  private void close() {
+    try {
+      this.socket.close();
+    } catch (IOException e) {
+      // Already broken
+    }
+    this.socket = null;
+    this.output = null;
+  }
+
+  static void writeFrame(final DataOutputStream output, final Value frame) throws IOException {
+    final byte[] bytes = Recon.toString(frame).getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  /**
+   * Returns the next frame, or null at the end of the stream. Throws if the
+   * frame's length is negative or larger than {@code maxLength}, after which
+   * the stream can't be resynchronized.
+   */
+  static Value readFrame(final DataInputStream input, final int maxLength) throws IOException {
+    final int length;
+    try {
+      length = input.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    if (length < 0 || length > maxLength) {
+      throw new IOException("invalid frame length " + length);
+    }
+    final byte[] bytes = new byte[length];
+    input.readFully(bytes);
+    return Recon.parse(new String(bytes, StandardCharsets.UTF_8));
+  }
+}
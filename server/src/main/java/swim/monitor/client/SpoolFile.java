@@ -0,0 +1,231 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import swim.recon.Recon;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Bounded FIFO of values in a memory-mapped ring file, so samples taken
+ * while the server is unreachable survive until they can be replayed, even
+ * across a client restart. The oldest values are overwritten once the file
+ * is full. The file is locked for as long as the spool is open, so that
+ * two clients can't share it. Not thread-safe.
+ */
+public class SpoolFile {
+
+  private static final int MAGIC = 0x53504f4c;
+  // Header layout: magic, head offset, tail offset, value count
+  private static final int HEAD_OFFSET = 4;
+  private static final int TAIL_OFFSET = 8;
+  private static final int COUNT_OFFSET = 12;
+  private static final int HEADER_SIZE = 16;
+  private static final int WRAP = -1;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+  private int head;
+  private int tail;
+  private int count;
+
+  public SpoolFile(final Path path, final int size) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      if (!tryLock(this.channel)) {
+        throw new IOException(path + " is in use by another client");
+      }
+      final boolean resized = this.channel.size() != size;
+      this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0L, size);
+      this.capacity = size;
+      if (resized || !recover()) {
+        clear();
+      }
+    } catch (IOException | RuntimeException e) {
+      this.channel.close();
+      throw e;
+    }
+  }
+
+  private static boolean tryLock(final FileChannel channel) throws IOException {
+    try {
+      return channel.tryLock() != null;
+    } catch (OverlappingFileLockException e) {
+      // Locked by this process
+      return false;
+    }
+  }
+
+  /**
+   * Releases the file; the spooled values stay in it for the next client.
+   */
+  public void close() throws IOException {
+    this.buffer.force();
+    this.channel.close();
+  }
+
+  /**
+   * Returns the number of spooled values.
+   */
+  public int size() {
+    return this.count;
+  }
+
+  public boolean isEmpty() {
+    return this.count == 0;
+  }
+
+  /**
+   * Appends a value, evicting the oldest ones to make room. Returns false if
+   * the value is too large to ever fit.
+   */
+  public boolean append(final Value value) {
+    final byte[] bytes = Recon.toString(value).getBytes(StandardCharsets.UTF_8);
+    final int length = 4 + bytes.length;
+    if (length > this.capacity - HEADER_SIZE) {
+      return false;
+    }
+    int offset;
+    while ((offset = reserve(length)) < 0) {
+      evict();
+    }
+    this.buffer.putInt(offset, bytes.length);
+    final ByteBuffer view = this.buffer.duplicate();
+    view.position(offset + 4);
+    view.put(bytes);
+    this.tail = offset + length;
+    this.count++;
+    writeHeader();
+    return true;
+  }
+
+  /**
+   * Removes and returns up to {@code limit} of the oldest values, oldest first.
+   */
+  public Record poll(final int limit) {
+    final int n = Math.min(limit, this.count);
+    final Record values = Record.create(n);
+    for (int i = 0; i < n; i++) {
+      final int length = readLength();
+      if (length < 0) {
+        // Corrupted by an interrupted write; nothing after it can be trusted
+        clear();
+        break;
+      }
+      final byte[] bytes = new byte[length];
+      final ByteBuffer view = this.buffer.duplicate();
+      view.position(this.head + 4);
+      view.get(bytes);
+      final Value value;
+      try {
+        value = Recon.parse(new String(bytes, StandardCharsets.UTF_8));
+      } catch (RuntimeException e) {
+        clear();
+        break;
+      }
+      values.add(value);
+      advance(length);
+    }
+    writeHeader();
+    return values;
+  }
+
+  public void clear() {
+    this.head = HEADER_SIZE;
+    this.tail = HEADER_SIZE;
+    this.count = 0;
+    writeHeader();
+  }
+
+  /**
+   * Returns the offset at which a value of the given encoded length can be
+   * written without overwriting spooled values, or -1 if there is none.
+   */
+  private int reserve(final int length) {
+    if (this.count == 0) {
+      this.head = HEADER_SIZE;
+      this.tail = HEADER_SIZE;
+    }
+    if (this.count == 0 || this.tail > this.head) {
+      if (this.tail + length <= this.capacity) {
+        return this.tail;
+      } else if (HEADER_SIZE + length <= this.head) {
+        if (this.capacity - this.tail >= 4) {
+          this.buffer.putInt(this.tail, WRAP);
+        }
+        return HEADER_SIZE;
+      }
+      return -1;
+    }
+    return this.tail + length <= this.head ? this.tail : -1;
+  }
+
+  private void evict() {
+    final int length = readLength();
+    if (length < 0) {
+      clear();
+    } else {
+      advance(length);
+    }
+  }
+
+  /**
+   * Returns the encoded length of the value at the head, following a wrap
+   * marker if needed, or -1 if the head doesn't point at a valid value.
+   */
+  private int readLength() {
+    if (this.capacity - this.head < 4 || this.buffer.getInt(this.head) == WRAP) {
+      this.head = HEADER_SIZE;
+    }
+    final int length = this.buffer.getInt(this.head);
+    return length >= 0 && length <= this.capacity - this.head - 4 ? length : -1;
+  }
+
+  private void advance(final int length) {
+    this.head += 4 + length;
+    if (--this.count == 0) {
+      this.head = HEADER_SIZE;
+      this.tail = HEADER_SIZE;
+    }
+  }
+
+  private boolean recover() {
+    if (this.buffer.getInt(0) != MAGIC) {
+      return false;
+    }
+    this.head = this.buffer.getInt(HEAD_OFFSET);
+    this.tail = this.buffer.getInt(TAIL_OFFSET);
+    this.count = this.buffer.getInt(COUNT_OFFSET);
+    return this.count >= 0
+        && this.head >= HEADER_SIZE && this.head <= this.capacity
+        && this.tail >= HEADER_SIZE && this.tail <= this.capacity;
+  }
+
+  private void writeHeader() {
+    this.buffer.putInt(HEAD_OFFSET, this.head);
+    this.buffer.putInt(TAIL_OFFSET, this.tail);
+    this.buffer.putInt(COUNT_OFFSET, this.count);
+    this.buffer.putInt(0, MAGIC);
+  }
+}
@@ -22,20 +22,48 @@ public class SwimMonitorClient {
 
   public static final String HOST = System.getProperty("host", "warp://localhost:9001");
   public static final Uri HOST_URI = Uri.parse(HOST);
+  // host:port of a CollectorGateway to send samples through instead of connecting to the server
+  private static final String RELAY = System.getProperty("monitor.relay");
+  // Disk, network and pressure stall monitors, where /proc provides them
+  private static final boolean IO_MONITORS = Boolean.parseBoolean(System.getProperty("monitor.io", "true"));
+  private static final long IO_INTERVAL_SEC = Long.parseLong(System.getProperty("io.interval", "5"));
 
   public static void main(String[] args) {
 
-    final ClientRuntime swimClient = new ClientRuntime();
-    swimClient.start();
+    final ClientRuntime swimClient = RELAY != null ? null : new ClientRuntime();
+    if (swimClient != null) {
+      swimClient.start();
+    }
     final SystemInfo systemInfo = new SystemInfo();
-    startProcessMonitor(swimClient, systemInfo);
+    final MonitorScheduler scheduler = new MonitorScheduler();
+    final ProcessMonitor processMonitor = startProcessMonitor(swimClient, systemInfo, scheduler);
+    if (IO_MONITORS) {
+      startIoMonitors(swimClient, processMonitor, scheduler);
+    }
   }
 
-  private static void startProcessMonitor(final ClientRuntime swimClient, final SystemInfo systemInfo) {
-    final ProcessMonitor processMonitor = new ProcessMonitor(swimClient, HOST_URI, systemInfo);
-    swimClient.stage().execute(() -> {
-      System.out.println("Starting ProcessMonitor");
-      processMonitor.monitor();
-    });
+  private static ProcessMonitor startProcessMonitor(final ClientRuntime swimClient, final SystemInfo systemInfo, final MonitorScheduler scheduler) {
+    final ProcessMonitor processMonitor = new ProcessMonitor(swimClient, HOST_URI, systemInfo, RELAY);
+    System.out.println("Starting ProcessMonitor");
+    scheduler.schedule(processMonitor, Monitor.START_PAUSE);
+    return processMonitor;
   }
-}
\ No newline at end of file
+
+  // Reports for the same machine as the process monitor, through its relay if it has one
+  private static void startIoMonitors(final ClientRuntime swimClient, final ProcessMonitor processMonitor, final MonitorScheduler scheduler) {
+    final Uri nodeUri = processMonitor.nodeUri();
+    final long interval = IO_INTERVAL_SEC * 1000L;
+    if (DiskMonitor.isSupported()) {
+      System.out.println("Starting DiskMonitor");
+      scheduler.schedule(new DiskMonitor(swimClient, HOST_URI, nodeUri, interval, processMonitor.relay()), Monitor.START_PAUSE);
+    }
+    if (NetworkMonitor.isSupported()) {
+      System.out.println("Starting NetworkMonitor");
+      scheduler.schedule(new NetworkMonitor(swimClient, HOST_URI, nodeUri, interval, processMonitor.relay()), Monitor.START_PAUSE);
+    }
+    if (PressureMonitor.isSupported()) {
+      System.out.println("Starting PressureMonitor");
+      scheduler.schedule(new PressureMonitor(swimClient, HOST_URI, nodeUri, interval, processMonitor.relay()), Monitor.START_PAUSE);
+    }
+  }
+}
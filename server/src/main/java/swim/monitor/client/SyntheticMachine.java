@@ -0,0 +1,106 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.util.SplittableRandom;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Builds synthetic payloads shaped like {@link ProcessMonitor}'s, with
+ * metrics that drift randomly between pulses. Not thread-safe.
+ */
+public class SyntheticMachine {
+
+  private static final long TOTAL_MEMORY = 16L << 30;
+  private static final long MAX_FREQUENCY = 3_000_000_000L;
+  private static final int CORES = 8;
+
+  private final SplittableRandom random;
+  private final long bootTime;
+  private final double[] cpuLoads;
+  private double systemLoad;
+  private long available = TOTAL_MEMORY / 2;
+
+  public SyntheticMachine(final long seed, final int processCount) {
+    this.random = new SplittableRandom(seed);
+    this.bootTime = System.currentTimeMillis() - this.random.nextLong(86400000L);
+    this.cpuLoads = new double[processCount];
+  }
+
+  public Value systemInfo(final long timestamp, final String clusterId) {
+    return Record.create(4)
+            .slot("timestamp", timestamp)
+            .slot("cluster_id", clusterId)
+            .slot("os", Record.create(5)
+                    .slot("manufacturer", "Synthetic")
+                    .slot("family", "Load")
+                    .slot("version", "1.0")
+                    .slot("bitness", 64)
+                    .slot("process_count", this.cpuLoads.length))
+            .slot("hardware", Record.create(1)
+                    .slot("memory", Record.create(1).slot("total", TOTAL_MEMORY)));
+  }
+
+  public Value processes(final long timestamp) {
+    final Record processes = Record.create(this.cpuLoads.length);
+    for (int pid = 1; pid <= this.cpuLoads.length; pid++) {
+      // Most processes idle; a few drift enough to be republished
+      final double cpuLoad = Math.max(0.0, this.cpuLoads[pid - 1] + (this.random.nextDouble() - 0.5) * 0.02);
+      this.cpuLoads[pid - 1] = cpuLoad;
+      processes.add(Record.create(10)
+              .slot("timestamp", timestamp)
+              .slot("pid", pid)
+              .slot("name", "process-" + pid)
+              .slot("user", "load")
+              .slot("user_id", "1000")
+              .slot("priority", 20)
+              .slot("virtual_size", 1L << 30)
+              .slot("rss", (64L << 20) + pid * 4096L)
+              .slot("cpu_load", cpuLoad)
+              .slot("uptime", timestamp - this.bootTime));
+    }
+    return processes;
+  }
+
+  public Value usage(final long timestamp) {
+    this.systemLoad = Math.min(100.0, Math.max(0.0, this.systemLoad + (this.random.nextDouble() - 0.5) * 10.0));
+    this.available = Math.min(TOTAL_MEMORY, Math.max(0L, this.available + this.random.nextLong(1L << 26) - (1L << 25)));
+    final Record currentFrequency = Record.create(CORES);
+    for (int i = 0; i < CORES; i++) {
+      currentFrequency.slot(Integer.toString(i), MAX_FREQUENCY / 2 + this.random.nextLong(MAX_FREQUENCY / 2));
+    }
+    return Record.create(3)
+            .slot("timestamp", timestamp)
+            .slot("os", Record.create(4)
+                    .slot("boot_time", this.bootTime)
+                    .slot("uptime", timestamp - this.bootTime)
+                    .slot("process_count", this.cpuLoads.length)
+                    .slot("thread_count", this.cpuLoads.length * 4))
+            .slot("hardware", Record.create(3)
+                    .slot("memory", Record.create(6)
+                            .slot("total", TOTAL_MEMORY)
+                            .slot("available", this.available)
+                            .slot("swap_total", TOTAL_MEMORY / 4)
+                            .slot("swap_used", 0L)
+                            .slot("virtual_max", TOTAL_MEMORY)
+                            .slot("virtual_in_use", TOTAL_MEMORY - this.available))
+                    .slot("processor", Record.create(3)
+                            .slot("max_frequency", MAX_FREQUENCY)
+                            .slot("current_frequency", currentFrequency)
+                            .slot("average_system_load", this.systemLoad))
+                    .slot("is_charging", false));
+  }
+}
@@ -0,0 +1,157 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Baseline of each of a machine's metrics, kept as an exponentially
+ * weighted mean and variance so that every sample costs constant time and
+ * memory. A sample is scored by how many deviations it lies from the
+ * baseline before it is folded in. A metric raises an alert once its score
+ * reaches the threshold, and clears it once its score falls below half the
+ * threshold. Not thread-safe.
+ */
+public class AnomalyDetector {
+
+  // Deviations smaller than this fraction of the mean are never anomalous
+  private static final double MIN_RELATIVE_DEVIATION = 0.05;
+  private static final double MIN_DEVIATION = 1.0e-6;
+
+  private final String[] metrics;
+  private final double alpha;
+  private final int warmup;
+  private final double threshold;
+  private final double[] means;
+  private final double[] variances;
+  private final double[] values;
+  // Baseline each value was scored against, before the value was folded in
+  private final double[] baselineMeans;
+  private final double[] baselineDeviations;
+  private final double[] scores;
+  private final int[] counts;
+  private final long[] since;
+  private long alerting;
+  // Metrics whose alert was raised or cleared by the current sample
+  private long raised;
+  private long cleared;
+
+  /**
+   * @param alpha     weight of each new sample in the baseline
+   * @param warmup    samples a metric needs before it is scored
+   * @param threshold score at which a metric raises an alert
+   */
+  public AnomalyDetector(final String[] metrics, final double alpha, final int warmup, final double threshold) {
+    if (metrics.length > 64) {
+      throw new IllegalArgumentException("too many metrics");
+    }
+    this.metrics = metrics;
+    this.alpha = alpha;
+    this.warmup = warmup;
+    this.threshold = threshold;
+    this.means = new double[metrics.length];
+    this.variances = new double[metrics.length];
+    this.values = new double[metrics.length];
+    this.baselineMeans = new double[metrics.length];
+    this.baselineDeviations = new double[metrics.length];
+    this.scores = new double[metrics.length];
+    this.counts = new int[metrics.length];
+    this.since = new long[metrics.length];
+  }
+
+  public int size() {
+    return this.metrics.length;
+  }
+
+  public String metric(final int metric) {
+    return this.metrics[metric];
+  }
+
+  /**
+   * Starts a new sample, forgetting which alerts the previous one raised or cleared.
+   */
+  public void startSample() {
+    this.raised = 0L;
+    this.cleared = 0L;
+  }
+
+  /**
+   * Scores a metric of the current sample against its baseline, then
+   * updates the baseline. Returns the score, 0 while warming up.
+   */
+  public double observe(final int metric, final long timestamp, final double value) {
+    if (!Double.isFinite(value)) {
+      return 0.0;
+    }
+    final double mean = this.means[metric];
+    final double deviation = Math.max(Math.sqrt(this.variances[metric]),
+                                      Math.max(MIN_RELATIVE_DEVIATION * Math.abs(mean), MIN_DEVIATION));
+    double score = 0.0;
+    if (this.counts[metric] == 0) {
+      this.means[metric] = value;
+    } else {
+      final double diff = value - mean;
+      if (this.counts[metric] >= this.warmup) {
+        score = Math.abs(diff) / deviation;
+      }
+      final double increment = this.alpha * diff;
+      this.means[metric] = mean + increment;
+      this.variances[metric] = (1.0 - this.alpha) * (this.variances[metric] + diff * increment);
+    }
+    if (this.counts[metric] < this.warmup) {
+      this.counts[metric]++;
+    }
+    this.values[metric] = value;
+    this.baselineMeans[metric] = mean;
+    this.baselineDeviations[metric] = deviation;
+    this.scores[metric] = score;
+
+    final long bit = 1L << metric;
+    if ((this.alerting & bit) == 0L) {
+      if (score >= this.threshold) {
+        this.alerting |= bit;
+        this.raised |= bit;
+        this.since[metric] = timestamp;
+      }
+    } else if (score < this.threshold / 2.0) {
+      this.alerting &= ~bit;
+      this.cleared |= bit;
+    }
+    return score;
+  }
+
+  public boolean didRaise(final int metric) {
+    return (this.raised & (1L << metric)) != 0L;
+  }
+
+  public boolean didClear(final int metric) {
+    return (this.cleared & (1L << metric)) != 0L;
+  }
+
+  /**
+   * Returns the alert of a metric, as of its latest sample, with the
+   * baseline that sample was scored against.
+   */
+  public Value alert(final int metric) {
+    return Record.create(6)
+            .slot("metric", this.metrics[metric])
+            .slot("timestamp", this.since[metric])
+            .slot("value", this.values[metric])
+            .slot("mean", this.baselineMeans[metric])
+            .slot("deviation", this.baselineDeviations[metric])
+            .slot("score", this.scores[metric]);
+  }
+}
@@ -0,0 +1,338 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import java.util.HashMap;
+import java.util.TreeMap;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Running cluster totals, maintained by applying the difference between a
+ * machine's previous and current status instead of rescanning every machine.
+ */
+public class ClusterAggregate {
+
+  // Metrics of a cluster status retained in its statusHistory
+  public static final HistorySchema HISTORY_SCHEMA = new HistorySchema()
+          .column("machine_count", HistorySchema.Type.INT)
+          .column("average_latency", HistorySchema.Type.LONG)
+          .column("average_system_load", HistorySchema.Type.DOUBLE)
+          .column("max_system_load", HistorySchema.Type.DOUBLE)
+          .column("average_memory_usage", HistorySchema.Type.FLOAT)
+          .column("max_memory_usage", HistorySchema.Type.FLOAT)
+          .column("average_cpu_usage", HistorySchema.Type.DOUBLE)
+          .column("cluster_average_memory_usage", HistorySchema.Type.DOUBLE)
+          .column("cluster_process_count", HistorySchema.Type.INT)
+          .column("latency_p50", HistorySchema.Type.FLOAT)
+          .column("latency_p95", HistorySchema.Type.FLOAT)
+          .column("latency_p99", HistorySchema.Type.FLOAT)
+          .column("system_load_p50", HistorySchema.Type.FLOAT)
+          .column("system_load_p95", HistorySchema.Type.FLOAT)
+          .column("system_load_p99", HistorySchema.Type.FLOAT)
+          .column("memory_usage_p50", HistorySchema.Type.FLOAT)
+          .column("memory_usage_p95", HistorySchema.Type.FLOAT)
+          .column("memory_usage_p99", HistorySchema.Type.FLOAT)
+          .column("severity_p50", HistorySchema.Type.FLOAT)
+          .column("severity_p95", HistorySchema.Type.FLOAT)
+          .column("severity_p99", HistorySchema.Type.FLOAT);
+
+  // Maximum relative error of the reported percentiles; shards and their parent must agree on it
+  private static final double SKETCH_ACCURACY = Double.parseDouble(System.getProperty("cluster.sketch.accuracy", "0.01"));
+
+  private final HashMap<Value, Contribution> contributions = new HashMap<>();
+
+  private int machineCount;
+
+  private long totalLatency;
+  private int latencyCount;
+
+  private double totalSystemLoad;
+  private int systemLoadCount;
+  private final MaxIndex systemLoads = new MaxIndex();
+
+  private double totalMemoryUsage;
+  private int memoryCount;
+  private final MaxIndex memoryUsages = new MaxIndex();
+
+  private long processCount;
+
+  private final QuantileSketch latencySketch = new QuantileSketch(SKETCH_ACCURACY);
+  private final QuantileSketch systemLoadSketch = new QuantileSketch(SKETCH_ACCURACY);
+  private final QuantileSketch memoryUsageSketch = new QuantileSketch(SKETCH_ACCURACY);
+  private final QuantileSketch severitySketch = new QuantileSketch(SKETCH_ACCURACY);
+
+  /**
+   * Applies the latest status of a single machine.
+   */
+  public void update(final Value key, final Value machineStatus) {
+    final Contribution contribution = contribution(key);
+    subtract(contribution);
+    contribution.setMachineStatus(machineStatus);
+    add(contribution);
+  }
+
+  /**
+   * Applies the latest partial aggregate of a shard, as produced by
+   * {@link #toPartial()}.
+   */
+  public void updatePartial(final Value key, final Value partial) {
+    final Contribution contribution = contribution(key);
+    subtract(contribution);
+    contribution.setPartial(partial);
+    add(contribution);
+  }
+
+  public void remove(final Value key) {
+    final Contribution contribution = this.contributions.remove(key);
+    if (contribution != null) {
+      subtract(contribution);
+    }
+  }
+
+  public int machineCount() {
+    return this.machineCount;
+  }
+
+  private Contribution contribution(final Value key) {
+    Contribution contribution = this.contributions.get(key);
+    if (contribution == null) {
+      contribution = new Contribution();
+      this.contributions.put(key, contribution);
+    }
+    return contribution;
+  }
+
+  private void add(final Contribution contribution) {
+    this.machineCount += contribution.machineCount;
+    this.latencyCount += contribution.latencyCount;
+    this.totalLatency += contribution.totalLatency;
+    if (contribution.systemLoadCount > 0) {
+      this.systemLoadCount += contribution.systemLoadCount;
+      this.totalSystemLoad += contribution.totalSystemLoad;
+      this.systemLoads.add(contribution.maxSystemLoad);
+    }
+    if (contribution.memoryCount > 0) {
+      this.memoryCount += contribution.memoryCount;
+      this.totalMemoryUsage += contribution.totalMemoryUsage;
+      this.memoryUsages.add(contribution.maxMemoryUsage);
+    }
+    this.processCount += contribution.processCount;
+    if (contribution.latencySketch != null) {
+      this.latencySketch.addAll(contribution.latencySketch);
+      this.systemLoadSketch.addAll(contribution.systemLoadSketch);
+      this.memoryUsageSketch.addAll(contribution.memoryUsageSketch);
+      this.severitySketch.addAll(contribution.severitySketch);
+    } else {
+      if (contribution.latencyCount > 0) {
+        this.latencySketch.add(contribution.totalLatency);
+      }
+      if (contribution.systemLoadCount > 0) {
+        this.systemLoadSketch.add(contribution.totalSystemLoad);
+      }
+      if (contribution.memoryCount > 0) {
+        this.memoryUsageSketch.add(contribution.totalMemoryUsage);
+      }
+      if (contribution.severityCount > 0) {
+        this.severitySketch.add(contribution.severity);
+      }
+    }
+  }
+
+  private void subtract(final Contribution contribution) {
+    this.machineCount -= contribution.machineCount;
+    this.latencyCount -= contribution.latencyCount;
+    this.totalLatency -= contribution.totalLatency;
+    if (contribution.systemLoadCount > 0) {
+      this.systemLoadCount -= contribution.systemLoadCount;
+      // Reset on empty so floating point drift can't outlive the last contributor
+      this.totalSystemLoad = this.systemLoadCount == 0 ? 0.0 : this.totalSystemLoad - contribution.totalSystemLoad;
+      this.systemLoads.remove(contribution.maxSystemLoad);
+    }
+    if (contribution.memoryCount > 0) {
+      this.memoryCount -= contribution.memoryCount;
+      this.totalMemoryUsage = this.memoryCount == 0 ? 0.0 : this.totalMemoryUsage - contribution.totalMemoryUsage;
+      this.memoryUsages.remove(contribution.maxMemoryUsage);
+    }
+    this.processCount -= contribution.processCount;
+    if (contribution.latencySketch != null) {
+      this.latencySketch.removeAll(contribution.latencySketch);
+      this.systemLoadSketch.removeAll(contribution.systemLoadSketch);
+      this.memoryUsageSketch.removeAll(contribution.memoryUsageSketch);
+      this.severitySketch.removeAll(contribution.severitySketch);
+    } else {
+      if (contribution.latencyCount > 0) {
+        this.latencySketch.remove(contribution.totalLatency);
+      }
+      if (contribution.systemLoadCount > 0) {
+        this.systemLoadSketch.remove(contribution.totalSystemLoad);
+      }
+      if (contribution.memoryCount > 0) {
+        this.memoryUsageSketch.remove(contribution.totalMemoryUsage);
+      }
+      if (contribution.severityCount > 0) {
+        this.severitySketch.remove(contribution.severity);
+      }
+    }
+  }
+
+  public Value toStatus(final Value status) {
+    final long avgLatency = this.latencyCount == 0 ? 0 : this.totalLatency / this.latencyCount;
+    final double avgSystemLoad = this.systemLoadCount == 0 ? 0 : this.totalSystemLoad / this.systemLoadCount;
+    final float avgMemoryUsage = this.memoryCount == 0 ? 0 : (float) (this.totalMemoryUsage / this.memoryCount);
+
+    Value percentiles = percentiles(status, "latency", this.latencySketch);
+    percentiles = percentiles(percentiles, "system_load", this.systemLoadSketch);
+    percentiles = percentiles(percentiles, "memory_usage", this.memoryUsageSketch);
+    percentiles = percentiles(percentiles, "severity", this.severitySketch);
+    return percentiles
+            .updated("machine_count", this.machineCount)
+            .updated("average_latency", avgLatency)
+            .updated("average_system_load", avgSystemLoad)
+            .updated("max_system_load", this.systemLoads.max(0.0))
+            .updated("average_memory_usage", avgMemoryUsage)
+            .updated("max_memory_usage", (float) this.memoryUsages.max(0.0))
+            .updated("average_cpu_usage", avgSystemLoad)
+            .updated("cluster_average_memory_usage", 0.0)
+            .updated("cluster_process_count", (int) this.processCount);
+  }
+
+  private static Value percentiles(final Value status, final String metric, final QuantileSketch sketch) {
+    return status
+            .updated(metric + "_p50", (float) sketch.quantile(0.50, 0.0))
+            .updated(metric + "_p95", (float) sketch.quantile(0.95, 0.0))
+            .updated(metric + "_p99", (float) sketch.quantile(0.99, 0.0));
+  }
+
+  /**
+   * Returns the mergeable sums, counts, maxima and sketches behind {@link #toStatus(Value)},
+   * for a parent cluster to fold in with {@link #updatePartial(Value, Value)}.
+   */
+  public Value toPartial() {
+    return Record.create(14)
+            .slot("machine_count", this.machineCount)
+            .slot("total_latency", this.totalLatency)
+            .slot("latency_count", this.latencyCount)
+            .slot("total_system_load", this.totalSystemLoad)
+            .slot("system_load_count", this.systemLoadCount)
+            .slot("max_system_load", this.systemLoads.max(0.0))
+            .slot("total_memory_usage", this.totalMemoryUsage)
+            .slot("memory_count", this.memoryCount)
+            .slot("max_memory_usage", this.memoryUsages.max(0.0))
+            .slot("process_count", this.processCount)
+            .slot("latency_sketch", this.latencySketch.toValue())
+            .slot("system_load_sketch", this.systemLoadSketch.toValue())
+            .slot("memory_usage_sketch", this.memoryUsageSketch.toValue())
+            .slot("severity_sketch", this.severitySketch.toValue());
+  }
+
+  static final class Contribution {
+
+    int machineCount;
+    long totalLatency;
+    int latencyCount;
+    double totalSystemLoad;
+    int systemLoadCount;
+    double maxSystemLoad;
+    double totalMemoryUsage;
+    int memoryCount;
+    double maxMemoryUsage;
+    long processCount;
+    double severity;
+    int severityCount;
+    // Only set for the partial aggregate of a shard
+    QuantileSketch latencySketch;
+    QuantileSketch systemLoadSketch;
+    QuantileSketch memoryUsageSketch;
+    QuantileSketch severitySketch;
+
+    void setMachineStatus(final Value machineStatus) {
+      this.machineCount = 1;
+
+      final Value latency = machineStatus.get("latency");
+      this.latencyCount = latency.isDefined() ? 1 : 0;
+      this.totalLatency = latency.longValue(0L);
+
+      final Value systemLoad = machineStatus.get("average_system_load");
+      this.systemLoadCount = systemLoad.isDefined() ? 1 : 0;
+      this.totalSystemLoad = systemLoad.doubleValue(0.0);
+      this.maxSystemLoad = this.totalSystemLoad;
+
+      final Value memoryUsage = machineStatus.get("memory_usage");
+      this.memoryCount = memoryUsage.isDefined() ? 1 : 0;
+      this.totalMemoryUsage = memoryUsage.floatValue(0.0f);
+      this.maxMemoryUsage = this.totalMemoryUsage;
+
+      this.processCount = machineStatus.get("process_count").intValue(0);
+
+      final Value severity = machineStatus.get("severity");
+      this.severityCount = severity.isDefined() ? 1 : 0;
+      this.severity = severity.doubleValue(0.0);
+    }
+
+    void setPartial(final Value partial) {
+      this.machineCount = partial.get("machine_count").intValue(0);
+      this.totalLatency = partial.get("total_latency").longValue(0L);
+      this.latencyCount = partial.get("latency_count").intValue(0);
+      this.totalSystemLoad = partial.get("total_system_load").doubleValue(0.0);
+      this.systemLoadCount = partial.get("system_load_count").intValue(0);
+      this.maxSystemLoad = partial.get("max_system_load").doubleValue(0.0);
+      this.totalMemoryUsage = partial.get("total_memory_usage").doubleValue(0.0);
+      this.memoryCount = partial.get("memory_count").intValue(0);
+      this.maxMemoryUsage = partial.get("max_memory_usage").doubleValue(0.0);
+      this.processCount = partial.get("process_count").longValue(0L);
+
+      if (this.latencySketch == null) {
+        this.latencySketch = new QuantileSketch(SKETCH_ACCURACY);
+        this.systemLoadSketch = new QuantileSketch(SKETCH_ACCURACY);
+        this.memoryUsageSketch = new QuantileSketch(SKETCH_ACCURACY);
+        this.severitySketch = new QuantileSketch(SKETCH_ACCURACY);
+      }
+      this.latencySketch.readFrom(partial.get("latency_sketch"));
+      this.systemLoadSketch.readFrom(partial.get("system_load_sketch"));
+      this.memoryUsageSketch.readFrom(partial.get("memory_usage_sketch"));
+      this.severitySketch.readFrom(partial.get("severity_sketch"));
+    }
+  }
+
+  /**
+   * Sorted multiset of contributed values, so the maximum stays correct when
+   * the current maximum is updated or removed.
+   */
+  static final class MaxIndex {
+
+    private final TreeMap<Double, int[]> counts = new TreeMap<>();
+
+    void add(final double value) {
+      final int[] count = this.counts.get(value);
+      if (count == null) {
+        this.counts.put(value, new int[] {1});
+      } else {
+        count[0]++;
+      }
+    }
+
+    void remove(final double value) {
+      final int[] count = this.counts.get(value);
+      if (count != null && --count[0] == 0) {
+        this.counts.remove(value);
+      }
+    }
+
+    double max(final double defaultValue) {
+      return this.counts.isEmpty() ? defaultValue : Math.max(defaultValue, this.counts.lastKey());
+    }
+  }
+}
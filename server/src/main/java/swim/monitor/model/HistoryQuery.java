@@ -0,0 +1,204 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import swim.structure.Item;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Downsamples a time range of a status history to a fixed number of
+ * points, so that a chart's payload scales with its width rather than with
+ * the history it covers. A request looks like
+ * {@code {id: q1, from: 0, to: 1700000000000, metrics: {memory_usage}, points: 300, method: lttb}},
+ * where {@code method} is either {@code minmax}, the default, for the
+ * minimum, maximum and average of each of {@code points} equal time
+ * buckets, or {@code lttb} for the {@code points} samples that best
+ * preserve the series' shape.
+ */
+public final class HistoryQuery {
+
+  private static final int DEFAULT_POINTS = 300;
+  private static final int MAX_POINTS = 5000;
+
+  private HistoryQuery() {
+  }
+
+  /**
+   * Answers a request from the finest of the history and its rollup tiers,
+   * ordered finest first, that still covers the start of the range.
+   */
+  public static Value run(final Value request, final HistorySchema schema,
+                          final StatusHistoryBuffer history, final HistoryRollup... tiers) {
+    final long to = request.get("to").longValue(Long.MAX_VALUE);
+    final long from = request.get("from").longValue(0L);
+    final int points = Math.max(1, Math.min(MAX_POINTS, request.get("points").intValue(DEFAULT_POINTS)));
+    final boolean lttb = "lttb".equals(request.get("method").stringValue("minmax"));
+
+    HistoryRing source = history;
+    long resolution = 0L;
+    if (history.size() == 0 || history.timestampAt(0) > from) {
+      for (HistoryRollup tier : tiers) {
+        if (tier.size() > 0) {
+          source = tier;
+          resolution = tier.resolution();
+          if (tier.timestampAt(0) <= from) {
+            break;
+          }
+        }
+      }
+    }
+
+    int start = source.indexOf(from);
+    if (start < 0) {
+      start = -(start + 1);
+    }
+    int end = source.indexOf(to);
+    end = end < 0 ? -(end + 1) : end + 1;
+
+    final Record series = Record.create();
+    for (Item item : request.get("metrics")) {
+      final String metric = item.stringValue("");
+      final int column = schema.indexOf(metric);
+      if (column >= 0 && schema.type(column) != HistorySchema.Type.BOOLEAN) {
+        series.slot(metric, lttb ? lttb(source, column, start, end, Math.max(3, points))
+                                 : minMax(source, column, start, end, points));
+      }
+    }
+    return Record.create(6)
+            .slot("id", request.get("id"))
+            .slot("from", from)
+            .slot("to", to)
+            .slot("method", lttb ? "lttb" : "minmax")
+            .slot("resolution", resolution)
+            .slot("series", series);
+  }
+
+  private static Value minMax(final HistoryRing source, final int column,
+                              final int start, final int end, final int points) {
+    if (start >= end) {
+      return Record.empty();
+    }
+    final long first = source.timestampAt(start);
+    final double width = Math.max(1.0, (double) (source.timestampAt(end - 1) - first + 1L) / points);
+    final Record buckets = Record.create(Math.min(points, end - start));
+    long bucket = -1L;
+    double min = 0.0;
+    double max = 0.0;
+    double total = 0.0;
+    int count = 0;
+    for (int index = start; index < end; index++) {
+      if (!source.isPresent(index, column)) {
+        continue;
+      }
+      final long timestamp = source.timestampAt(index);
+      final long b = (long) ((timestamp - first) / width);
+      if (b != bucket) {
+        if (count > 0) {
+          buckets.add(bucket(first + (long) (bucket * width), min, max, total / count));
+        }
+        bucket = b;
+        min = source.minValue(index, column);
+        max = source.maxValue(index, column);
+        total = source.avgValue(index, column);
+        count = 1;
+      } else {
+        min = Math.min(min, source.minValue(index, column));
+        max = Math.max(max, source.maxValue(index, column));
+        total += source.avgValue(index, column);
+        count++;
+      }
+    }
+    if (count > 0) {
+      buckets.add(bucket(first + (long) (bucket * width), min, max, total / count));
+    }
+    return buckets;
+  }
+
+  private static Value bucket(final long timestamp, final double min, final double max, final double avg) {
+    return Record.create(4)
+            .slot("t", timestamp)
+            .slot("min", min)
+            .slot("max", max)
+            .slot("avg", avg);
+  }
+
+  /**
+   * Largest-Triangle-Three-Buckets: keeps the first and last points, and
+   * from each bucket in between the point forming the largest triangle
+   * with the point kept before it and the average of the next bucket.
+   */
+  private static Value lttb(final HistoryRing source, final int column,
+                            final int start, final int end, final int points) {
+    int n = 0;
+    final long[] ts = new long[Math.max(0, end - start)];
+    final double[] vs = new double[ts.length];
+    for (int index = start; index < end; index++) {
+      if (source.isPresent(index, column)) {
+        ts[n] = source.timestampAt(index);
+        vs[n] = source.avgValue(index, column);
+        n++;
+      }
+    }
+    final Record samples = Record.create(Math.min(n, points));
+    if (n <= points) {
+      for (int i = 0; i < n; i++) {
+        samples.add(sample(ts[i], vs[i]));
+      }
+      return samples;
+    }
+
+    final double width = (double) (n - 2) / (points - 2);
+    int kept = 0;
+    samples.add(sample(ts[0], vs[0]));
+    for (int b = 0; b < points - 2; b++) {
+      final int from = (int) (b * width) + 1;
+      final int until = (int) ((b + 1) * width) + 1;
+      // Average of the next bucket, or the last point
+      final int nextFrom = until;
+      final int nextUntil = Math.min(n, (int) ((b + 2) * width) + 1);
+      double avgT = 0.0;
+      double avgV = 0.0;
+      for (int i = nextFrom; i < nextUntil; i++) {
+        avgT += ts[i];
+        avgV += vs[i];
+      }
+      final int nextCount = nextUntil - nextFrom;
+      avgT /= nextCount;
+      avgV /= nextCount;
+
+      double maxArea = -1.0;
+      int best = from;
+      for (int i = from; i < until; i++) {
+        final double area = Math.abs((ts[kept] - avgT) * (vs[i] - vs[kept])
+                                     - (ts[kept] - ts[i]) * (avgV - vs[kept]));
+        if (area > maxArea) {
+          maxArea = area;
+          best = i;
+        }
+      }
+      samples.add(sample(ts[best], vs[best]));
+      kept = best;
+    }
+    samples.add(sample(ts[n - 1], vs[n - 1]));
+    return samples;
+  }
+
+  private static Value sample(final long timestamp, final double value) {
+    return Record.create(2)
+            .slot("t", timestamp)
+            .slot("v", value);
+  }
+}
@@ -0,0 +1,158 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Bounded, timestamp ordered ring of history rows. Subclasses keep their
+ * columns in parallel primitive arrays indexed by physical row.
+ */
+abstract class HistoryRing {
+
+  private static final int INITIAL_LENGTH = 16;
+
+  private final int capacity;
+  long[] timestamps;
+  private int head;
+  private int size;
+  long evicted;
+
+  HistoryRing(final int capacity) {
+    this.capacity = capacity;
+    this.timestamps = new long[Math.min(capacity, INITIAL_LENGTH)];
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public long timestampAt(final int index) {
+    return this.timestamps[row(index)];
+  }
+
+  public long lastTimestamp() {
+    return this.size == 0 ? 0L : timestampAt(this.size - 1);
+  }
+
+  /**
+   * Returns the logical index of the row with the given timestamp, or
+   * {@code -(insertionIndex + 1)} if there is none.
+   */
+  public int indexOf(final long timestamp) {
+    int low = 0;
+    int high = this.size - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final long t = timestampAt(mid);
+      if (t < timestamp) {
+        low = mid + 1;
+      } else if (t > timestamp) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Iterates over a snapshot of the retained timestamps, oldest first.
+   */
+  public Iterator<Long> timestamps() {
+    final long[] snapshot = new long[this.size];
+    for (int i = 0; i < this.size; i++) {
+      snapshot[i] = timestampAt(i);
+    }
+    return new Iterator<Long>() {
+      private int index;
+
+      @Override
+      public boolean hasNext() {
+        return this.index < snapshot.length;
+      }
+
+      @Override
+      public Long next() {
+        if (this.index >= snapshot.length) {
+          throw new NoSuchElementException();
+        }
+        return snapshot[this.index++];
+      }
+    };
+  }
+
+  public abstract boolean isPresent(int index, int column);
+
+  /**
+   * Returns the smallest value of a numeric metric within the row at the given logical index.
+   */
+  public abstract double minValue(int index, int column);
+
+  public abstract double maxValue(int index, int column);
+
+  public abstract double avgValue(int index, int column);
+
+  final int row(final int index) {
+    final int row = this.head + index;
+    return row < this.timestamps.length ? row : row - this.timestamps.length;
+  }
+
+  /**
+   * Reserves the physical row for the given timestamp, shifting newer rows
+   * when it arrives out of order, or returns -1 when the timestamp is older
+   * than everything a full ring retains. The timestamp evicted to make room,
+   * if any, is left in {@link #evicted}.
+   */
+  final int insert(final long timestamp) {
+    this.evicted = 0L;
+    int index = indexOf(timestamp);
+    if (index >= 0) {
+      return row(index);
+    }
+    index = -(index + 1);
+    if (this.size == this.timestamps.length) {
+      if (this.size < this.capacity) {
+        // The ring never wraps before reaching capacity, so rows are still in order
+        final int length = Math.min(this.capacity, this.size * 2);
+        this.timestamps = Arrays.copyOf(this.timestamps, length);
+        grow(length);
+      } else if (index == 0) {
+        return -1;
+      } else {
+        this.evicted = timestampAt(0);
+        this.head = row(1);
+        this.size--;
+        index--;
+      }
+    }
+    for (int i = this.size; i > index; i--) {
+      final int from = row(i - 1);
+      final int to = row(i);
+      this.timestamps[to] = this.timestamps[from];
+      moveRow(from, to);
+    }
+    this.size++;
+    final int row = row(index);
+    this.timestamps[row] = timestamp;
+    return row;
+  }
+
+  abstract void grow(int length);
+
+  abstract void moveRow(int from, int to);
+}
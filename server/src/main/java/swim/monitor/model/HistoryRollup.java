@@ -0,0 +1,286 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import java.util.Arrays;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Rolls status samples up into fixed-resolution buckets holding the min, max
+ * and average of every numeric metric, retaining a bounded number of closed
+ * buckets in primitive columns. The open bucket closes when a sample for a
+ * later one arrives, or when {@link #close()} is called at its
+ * {@link #closeTime()}; samples for buckets already closed amend them.
+ */
+public class HistoryRollup extends HistoryRing {
+
+  private final HistorySchema schema;
+  private final long resolution;
+
+  // Open bucket accumulators, indexed by column
+  private long bucketStart = -1L;
+  private int sampleCount;
+  private final int[] openCounts;
+  private final double[] openMin;
+  private final double[] openMax;
+  private final double[] openTotal;
+
+  // Closed buckets, indexed by column then physical row; null for boolean columns
+  private int[] counts;
+  private long[] present;
+  private final float[][] mins;
+  private final float[][] maxs;
+  private final float[][] avgs;
+  private long closedTimestamp;
+
+  public HistoryRollup(final HistorySchema schema, final long resolution, final int capacity) {
+    super(capacity);
+    this.schema = schema;
+    this.resolution = resolution;
+    final int columns = schema.size();
+    this.openCounts = new int[columns];
+    this.openMin = new double[columns];
+    this.openMax = new double[columns];
+    this.openTotal = new double[columns];
+    final int length = this.timestamps.length;
+    this.counts = new int[length];
+    this.present = new long[length];
+    this.mins = new float[columns][];
+    this.maxs = new float[columns][];
+    this.avgs = new float[columns][];
+    for (int column = 0; column < columns; column++) {
+      if (schema.type(column) != HistorySchema.Type.BOOLEAN) {
+        this.mins[column] = new float[length];
+        this.maxs[column] = new float[length];
+        this.avgs[column] = new float[length];
+      }
+    }
+  }
+
+  public long resolution() {
+    return this.resolution;
+  }
+
+  /**
+   * Adds the sample at the given index of a history buffer with the same
+   * schema. Returns true when the sample closed the previous bucket, or
+   * amended a closed one, which is then available under
+   * {@link #closedTimestamp()}.
+   */
+  public boolean add(final long timestamp, final StatusHistoryBuffer source, final int index) {
+    final long start = timestamp - Math.floorMod(timestamp, this.resolution);
+    if (start < this.bucketStart) {
+      return amend(start, source, index);
+    }
+    boolean closed = false;
+    if (start > this.bucketStart) {
+      closed = close();
+      this.bucketStart = start;
+    }
+
+    this.sampleCount++;
+    for (int column = 0; column < this.openCounts.length; column++) {
+      if (this.mins[column] != null && source.isPresent(index, column)) {
+        final double value = source.doubleValue(index, column);
+        if (this.openCounts[column]++ == 0) {
+          this.openMin[column] = value;
+          this.openMax[column] = value;
+          this.openTotal[column] = value;
+        } else {
+          this.openMin[column] = Math.min(this.openMin[column], value);
+          this.openMax[column] = Math.max(this.openMax[column], value);
+          this.openTotal[column] += value;
+        }
+      }
+    }
+    return closed;
+  }
+
+  /**
+   * Returns when the open bucket ends, or {@link Long#MAX_VALUE} if it has
+   * no samples.
+   */
+  public long closeTime() {
+    return this.sampleCount > 0 ? this.bucketStart + this.resolution : Long.MAX_VALUE;
+  }
+
+  /**
+   * Closes the open bucket, if it has any samples, without waiting for a
+   * sample of the next one. Returns true when it did, with the bucket then
+   * available under {@link #closedTimestamp()}.
+   */
+  public boolean close() {
+    if (this.sampleCount == 0) {
+      return false;
+    }
+    final int row = insert(this.bucketStart);
+    if (row >= 0) {
+      long present = 0L;
+      for (int column = 0; column < this.openCounts.length; column++) {
+        final int count = this.openCounts[column];
+        if (count > 0) {
+          present |= 1L << column;
+          this.mins[column][row] = (float) this.openMin[column];
+          this.maxs[column][row] = (float) this.openMax[column];
+          this.avgs[column][row] = (float) (this.openTotal[column] / count);
+        }
+      }
+      this.counts[row] = this.sampleCount;
+      this.present[row] = present;
+      this.closedTimestamp = this.bucketStart;
+    }
+    // Later samples for the same bucket are amendments
+    this.bucketStart += this.resolution;
+    this.sampleCount = 0;
+    Arrays.fill(this.openCounts, 0);
+    return row >= 0;
+  }
+
+  private boolean amend(final long start, final StatusHistoryBuffer source, final int index) {
+    final boolean existing = indexOf(start) >= 0;
+    final int row = insert(start);
+    if (row < 0) {
+      return false;
+    }
+    if (!existing) {
+      this.counts[row] = 0;
+      this.present[row] = 0L;
+    }
+    // Per-metric counts aren't retained, so averages are weighted by the bucket's sample count
+    final int count = this.counts[row];
+    for (int column = 0; column < this.openCounts.length; column++) {
+      if (this.mins[column] != null && source.isPresent(index, column)) {
+        final float value = (float) source.doubleValue(index, column);
+        if ((this.present[row] & (1L << column)) == 0L) {
+          this.present[row] |= 1L << column;
+          this.mins[column][row] = value;
+          this.maxs[column][row] = value;
+          this.avgs[column][row] = value;
+        } else {
+          this.mins[column][row] = Math.min(this.mins[column][row], value);
+          this.maxs[column][row] = Math.max(this.maxs[column][row], value);
+          this.avgs[column][row] = (this.avgs[column][row] * count + value) / (count + 1);
+        }
+      }
+    }
+    this.counts[row] = count + 1;
+    this.closedTimestamp = start;
+    return true;
+  }
+
+  public long closedTimestamp() {
+    return this.closedTimestamp;
+  }
+
+  /**
+   * Returns the bucket evicted by the last close, or 0 if none was.
+   */
+  public long evictedTimestamp() {
+    return this.evicted;
+  }
+
+  /**
+   * Materializes the closed bucket starting at the given timestamp, or
+   * returns absent if it is no longer retained.
+   */
+  public Value get(final long timestamp) {
+    final int index = indexOf(timestamp);
+    if (index < 0) {
+      return Value.absent();
+    }
+    final int row = row(index);
+    final long present = this.present[row];
+    final Record bucket = Record.create(Long.bitCount(present) + 1)
+            .slot("count", this.counts[row]);
+    for (int column = 0; column < this.openCounts.length; column++) {
+      if ((present & (1L << column)) != 0L) {
+        bucket.slot(this.schema.name(column), Record.create(3)
+                .slot("min", this.mins[column][row])
+                .slot("max", this.maxs[column][row])
+                .slot("avg", this.avgs[column][row]));
+      }
+    }
+    return bucket;
+  }
+
+  @Override
+  public boolean isPresent(final int index, final int column) {
+    return (this.present[row(index)] & (1L << column)) != 0L;
+  }
+
+  @Override
+  public double minValue(final int index, final int column) {
+    return this.mins[column][row(index)];
+  }
+
+  @Override
+  public double maxValue(final int index, final int column) {
+    return this.maxs[column][row(index)];
+  }
+
+  @Override
+  public double avgValue(final int index, final int column) {
+    return this.avgs[column][row(index)];
+  }
+
+  /**
+   * Restores a closed bucket, as materialized by {@link #get(long)}.
+   */
+  public void restore(final long timestamp, final Value bucket) {
+    final int row = insert(timestamp);
+    if (row < 0) {
+      return;
+    }
+    long present = 0L;
+    for (int column = 0; column < this.openCounts.length; column++) {
+      final Value metric = bucket.get(this.schema.name(column));
+      if (this.mins[column] != null && metric.isDefined()) {
+        present |= 1L << column;
+        this.mins[column][row] = metric.get("min").floatValue(0.0f);
+        this.maxs[column][row] = metric.get("max").floatValue(0.0f);
+        this.avgs[column][row] = metric.get("avg").floatValue(0.0f);
+      }
+    }
+    this.counts[row] = bucket.get("count").intValue(0);
+    this.present[row] = present;
+  }
+
+  @Override
+  void grow(final int length) {
+    this.counts = Arrays.copyOf(this.counts, length);
+    this.present = Arrays.copyOf(this.present, length);
+    for (int column = 0; column < this.mins.length; column++) {
+      if (this.mins[column] != null) {
+        this.mins[column] = Arrays.copyOf(this.mins[column], length);
+        this.maxs[column] = Arrays.copyOf(this.maxs[column], length);
+        this.avgs[column] = Arrays.copyOf(this.avgs[column], length);
+      }
+    }
+  }
+
+  @Override
+  void moveRow(final int from, final int to) {
+    this.counts[to] = this.counts[from];
+    this.present[to] = this.present[from];
+    for (int column = 0; column < this.mins.length; column++) {
+      if (this.mins[column] != null) {
+        this.mins[column][to] = this.mins[column][from];
+        this.maxs[column][to] = this.maxs[column][from];
+        this.avgs[column][to] = this.avgs[column][from];
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import java.util.Arrays;
+
+/**
+ * The known metrics of a status record, each stored in its own primitive
+ * history column.
+ */
+public final class HistorySchema {
+
+  public enum Type {
+    LONG, INT, FLOAT, DOUBLE, BOOLEAN
+  }
+
+  // Row presence is tracked in a single long bitmask
+  static final int MAX_COLUMNS = 64;
+
+  private String[] names = new String[0];
+  private Type[] types = new Type[0];
+
+  public HistorySchema column(final String name, final Type type) {
+    final int count = this.names.length;
+    if (count == MAX_COLUMNS) {
+      throw new IllegalStateException("too many history columns");
+    }
+    this.names = Arrays.copyOf(this.names, count + 1);
+    this.types = Arrays.copyOf(this.types, count + 1);
+    this.names[count] = name;
+    this.types[count] = type;
+    return this;
+  }
+
+  public int size() {
+    return this.names.length;
+  }
+
+  public String name(final int column) {
+    return this.names[column];
+  }
+
+  public Type type(final int column) {
+    return this.types[column];
+  }
+
+  public int indexOf(final String name) {
+    for (int i = 0; i < this.names.length; i++) {
+      if (this.names[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,91 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import java.util.HashMap;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Fleet-wide disk and network throughput. Each member, a machine or a
+ * cluster shard, contributes its own totals, as produced by {@link #summary}
+ * or {@link #toValue()}; rates add up across members, and the busiest disk
+ * utilization is kept as a maximum. Not thread-safe.
+ */
+public class IoTotals {
+
+  private static final String[] SUMS = {
+      "disk_read_bytes", "disk_write_bytes", "disk_reads", "disk_writes",
+      "net_rx_bytes", "net_tx_bytes", "net_rx_packets", "net_tx_packets", "machines"};
+  private static final String MAX_UTILIZATION = "disk_utilization_max";
+
+  private final HashMap<Value, double[]> contributions = new HashMap<>();
+
+  /**
+   * Returns the contribution of a machine, from its latest {@code disk} and
+   * {@code network} reports, either of which may be absent.
+   */
+  public static Value summary(final Value disk, final Value network) {
+    return Record.create(11)
+            .slot("timestamp", Math.max(disk.get("timestamp").longValue(0L), network.get("timestamp").longValue(0L)))
+            .slot("disk_read_bytes", disk.get("read_bytes").doubleValue(0.0))
+            .slot("disk_write_bytes", disk.get("write_bytes").doubleValue(0.0))
+            .slot("disk_reads", disk.get("reads").doubleValue(0.0))
+            .slot("disk_writes", disk.get("writes").doubleValue(0.0))
+            .slot("net_rx_bytes", network.get("rx_bytes").doubleValue(0.0))
+            .slot("net_tx_bytes", network.get("tx_bytes").doubleValue(0.0))
+            .slot("net_rx_packets", network.get("rx_packets").doubleValue(0.0))
+            .slot("net_tx_packets", network.get("tx_packets").doubleValue(0.0))
+            .slot("machines", 1)
+            .slot(MAX_UTILIZATION, disk.get("utilization").doubleValue(0.0));
+  }
+
+  /**
+   * Replaces the totals contributed by a member.
+   */
+  public void update(final Value key, final Value io) {
+    double[] values = this.contributions.get(key);
+    if (values == null) {
+      values = new double[SUMS.length + 1];
+      this.contributions.put(key, values);
+    }
+    for (int i = 0; i < SUMS.length; i++) {
+      values[i] = io.get(SUMS[i]).doubleValue(0.0);
+    }
+    values[SUMS.length] = io.get(MAX_UTILIZATION).doubleValue(0.0);
+  }
+
+  public void remove(final Value key) {
+    this.contributions.remove(key);
+  }
+
+  /**
+   * Returns the totals of every member, in the same shape as a member's contribution.
+   */
+  public Value toValue(final long timestamp) {
+    final double[] totals = new double[SUMS.length + 1];
+    for (double[] values : this.contributions.values()) {
+      for (int i = 0; i < SUMS.length; i++) {
+        totals[i] += values[i];
+      }
+      totals[SUMS.length] = Math.max(totals[SUMS.length], values[SUMS.length]);
+    }
+    final Record io = Record.create(SUMS.length + 2).slot("timestamp", timestamp);
+    for (int i = 0; i < SUMS.length; i++) {
+      io.slot(SUMS[i], totals[i]);
+    }
+    return io.slot(MAX_UTILIZATION, totals[SUMS.length]);
+  }
+}
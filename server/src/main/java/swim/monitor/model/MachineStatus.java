@@ -0,0 +1,296 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import swim.structure.Item;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Mutable status of a single machine, updated in place from its usage
+ * reports and only materialized as a {@link Value} when published.
+ * Not thread-safe.
+ */
+public class MachineStatus {
+
+  // Bits of the fields that are currently known
+  private static final int LATENCY = 1;
+  private static final int UPDATING = 1 << 1;
+  private static final int DISCONNECTED = 1 << 2;
+  private static final int AVERAGE_SYSTEM_LOAD = 1 << 3;
+  private static final int CPU_TEMPERATURE = 1 << 4;
+  private static final int USAGE = 1 << 5;
+  private static final int ANOMALY_SCORE = 1 << 6;
+
+  // Metrics scored by scoreAnomalies, in the order of their AnomalyDetector indexes
+  public static final String[] ANOMALY_METRICS = {
+      "latency", "memory_usage", "swap_usage", "max_processor_usage", "average_system_load", "cpu_temperature"
+  };
+
+  private int present;
+  private long timestamp;
+  private long latency;
+  private boolean updating;
+  private double averageSystemLoad;
+  private double cpuTemperature;
+  private long rawUptime;
+  private float memoryUsage;
+  private float swapUsage;
+  private float maxProcessorUsage;
+  private float meanProcessorUsage;
+  private boolean isCharging;
+  private int processCount;
+  private float anomalyScore;
+
+  // Uptime is only reformatted when its seconds change
+  private final char[] uptimeChars = new char[24];
+  private long formattedSeconds = -1L;
+  private String formattedUptime;
+
+  public long timestamp() {
+    return this.timestamp;
+  }
+
+  public boolean isDisconnected() {
+    return (this.present & DISCONNECTED) != 0;
+  }
+
+  /**
+   * Marks the machine as updating as of the given report.
+   */
+  public void touch(final long timestamp, final long latency) {
+    this.timestamp = timestamp;
+    this.latency = latency;
+    this.updating = true;
+    this.present = (this.present | LATENCY | UPDATING) & ~DISCONNECTED;
+  }
+
+  /**
+   * Forgets every metric, leaving a machine that is updating as of the given timestamp.
+   */
+  public void reset(final long timestamp) {
+    this.timestamp = timestamp;
+    this.updating = true;
+    this.present = UPDATING;
+  }
+
+  /**
+   * Forgets every metric, leaving a machine that stopped updating at the given timestamp.
+   */
+  public void stopUpdating(final long timestamp) {
+    this.timestamp = timestamp;
+    this.updating = false;
+    this.present = UPDATING;
+  }
+
+  /**
+   * Forgets every metric, leaving a machine that disconnected at the given timestamp.
+   */
+  public void disconnect(final long timestamp) {
+    this.timestamp = timestamp;
+    this.present = DISCONNECTED;
+  }
+
+  public void applyUsage(final Value usage) {
+    // Memory
+    final Value memory = usage.get("hardware").get("memory");
+    final long available = memory.get("available").longValue(0);
+    final long total = memory.get("total").longValue(0);
+    this.memoryUsage = 1.0f - (total == 0L ? 0.0f : (float) available / (float) total);
+    final long swapTotal = memory.get("swap_total").longValue(0L);
+    final long swapUsed = memory.get("swap_used").longValue(0L);
+    this.swapUsage = (float) swapUsed / (float) swapTotal;
+
+    // CPU
+    final Value processor = usage.get("hardware").get("processor");
+    final long maxProcessorFrequency = processor.get("max_frequency").longValue(0L);
+    final Value currentFrequenciesValue = processor.get("current_frequency");
+    long totalFrequency = 0L;
+    long currentMaxFrequency = 0L;
+    for (final Item currentFrequencyItem : currentFrequenciesValue) {
+      final long currentFrequency = currentFrequencyItem.longValue(0L);
+      totalFrequency += currentFrequency;
+      if (currentFrequency > currentMaxFrequency) {
+        currentMaxFrequency = currentFrequency;
+      }
+    }
+    final int frequencyCount = currentFrequenciesValue.length();
+    this.meanProcessorUsage = (float) (frequencyCount == 0 ? 0L : totalFrequency / frequencyCount) / (float) (maxProcessorFrequency);
+    this.maxProcessorUsage = (float) currentMaxFrequency / (float) maxProcessorFrequency;
+
+    final Value averageSystemLoad = processor.get("average_system_load");
+    if (averageSystemLoad.isDefined()) {
+      this.averageSystemLoad = averageSystemLoad.doubleValue(-1);
+      this.present |= AVERAGE_SYSTEM_LOAD;
+    }
+
+    final Value cpuTemperature = processor.get("temperature");
+    if (cpuTemperature.isDefined()) {
+      this.cpuTemperature = cpuTemperature.doubleValue(Double.NaN);
+      this.present |= CPU_TEMPERATURE;
+    }
+
+    this.rawUptime = usage.get("os").get("uptime").longValue(0L);
+    this.isCharging = usage.get("hardware").get("is_charging").booleanValue(false);
+    this.processCount = usage.get("os").get("process_count").intValue(0);
+    this.present |= USAGE;
+  }
+
+  /**
+   * Scores the current metrics against the machine's baseline, folding them into it.
+   */
+  public float scoreAnomalies(final AnomalyDetector detector) {
+    detector.startSample();
+    double score = 0.0;
+    if ((this.present & LATENCY) != 0) {
+      score = Math.max(score, detector.observe(0, this.timestamp, this.latency));
+    }
+    if ((this.present & USAGE) != 0) {
+      score = Math.max(score, detector.observe(1, this.timestamp, this.memoryUsage));
+      score = Math.max(score, detector.observe(2, this.timestamp, this.swapUsage));
+      score = Math.max(score, detector.observe(3, this.timestamp, this.maxProcessorUsage));
+    }
+    if ((this.present & AVERAGE_SYSTEM_LOAD) != 0) {
+      score = Math.max(score, detector.observe(4, this.timestamp, this.averageSystemLoad));
+    }
+    if ((this.present & CPU_TEMPERATURE) != 0) {
+      score = Math.max(score, detector.observe(5, this.timestamp, this.cpuTemperature));
+    }
+    this.anomalyScore = (float) score;
+    this.present |= ANOMALY_SCORE;
+    return this.anomalyScore;
+  }
+
+  public float severity() {
+    if (!this.updating) {
+      return 2.0f;
+    }
+    final long latency = (this.present & LATENCY) != 0 ? this.latency : 0L;
+    final float memoryUsage = (this.present & USAGE) != 0 ? this.memoryUsage : 0.0f;
+    final double averageSystemLoad = (this.present & AVERAGE_SYSTEM_LOAD) != 0 ? this.averageSystemLoad : 0.0;
+    return StatusComputer.severity(latency, memoryUsage, averageSystemLoad);
+  }
+
+  /**
+   * Reads the fields of a status record, as produced by {@link #toValue()}.
+   */
+  public void readFrom(final Value status) {
+    this.present = 0;
+    this.timestamp = status.get("timestamp").longValue(0L);
+    if (status.get("disconnected").isDefined()) {
+      this.present |= DISCONNECTED;
+    }
+    final Value updating = status.get("updating");
+    this.updating = updating.booleanValue(true);
+    if (updating.isDefined()) {
+      this.present |= UPDATING;
+    }
+    final Value latency = status.get("latency");
+    if (latency.isDefined()) {
+      this.latency = latency.longValue(0L);
+      this.present |= LATENCY;
+    }
+    final Value averageSystemLoad = status.get("average_system_load");
+    if (averageSystemLoad.isDefined()) {
+      this.averageSystemLoad = averageSystemLoad.doubleValue(0.0);
+      this.present |= AVERAGE_SYSTEM_LOAD;
+    }
+    final Value cpuTemperature = status.get("cpu_temperature");
+    if (cpuTemperature.isDefined()) {
+      this.cpuTemperature = cpuTemperature.doubleValue(Double.NaN);
+      this.present |= CPU_TEMPERATURE;
+    }
+    final Value memoryUsage = status.get("memory_usage");
+    if (memoryUsage.isDefined()) {
+      this.memoryUsage = memoryUsage.floatValue(0.0f);
+      this.rawUptime = status.get("raw_uptime").longValue(0L);
+      this.swapUsage = status.get("swap_usage").floatValue(0.0f);
+      this.maxProcessorUsage = status.get("max_processor_usage").floatValue(0.0f);
+      this.meanProcessorUsage = status.get("mean_processor_usage").floatValue(0.0f);
+      this.isCharging = status.get("is_charging").booleanValue(false);
+      this.processCount = status.get("process_count").intValue(0);
+      this.present |= USAGE;
+    }
+    final Value anomalyScore = status.get("anomaly_score");
+    if (anomalyScore.isDefined()) {
+      this.anomalyScore = anomalyScore.floatValue(0.0f);
+      this.present |= ANOMALY_SCORE;
+    }
+  }
+
+  /**
+   * Writes the fields derived from usage onto a status record.
+   */
+  public Value writeUsageTo(Value status) {
+    if ((this.present & AVERAGE_SYSTEM_LOAD) != 0) {
+      status = status.updated("average_system_load", this.averageSystemLoad);
+    }
+    if ((this.present & CPU_TEMPERATURE) != 0) {
+      status = status.updated("cpu_temperature", this.cpuTemperature);
+    }
+    return status
+            .updated("raw_uptime", this.rawUptime)
+            .updated("formatted_uptime", formattedUptime())
+            .updated("memory_usage", this.memoryUsage)
+            .updated("swap_usage", this.swapUsage)
+            .updated("max_processor_usage", this.maxProcessorUsage)
+            .updated("mean_processor_usage", this.meanProcessorUsage)
+            .updated("is_charging", this.isCharging)
+            .updated("process_count", this.processCount);
+  }
+
+  public Value toValue() {
+    final Record status = Record.create(18).slot("timestamp", this.timestamp);
+    if ((this.present & LATENCY) != 0) {
+      status.slot("latency", this.latency);
+    }
+    if ((this.present & UPDATING) != 0) {
+      status.slot("updating", this.updating);
+    }
+    if ((this.present & DISCONNECTED) != 0) {
+      // A disconnected machine has no severity
+      return status.slot("disconnected", true);
+    }
+    if ((this.present & AVERAGE_SYSTEM_LOAD) != 0) {
+      status.slot("average_system_load", this.averageSystemLoad);
+    }
+    if ((this.present & CPU_TEMPERATURE) != 0) {
+      status.slot("cpu_temperature", this.cpuTemperature);
+    }
+    if ((this.present & USAGE) != 0) {
+      status.slot("raw_uptime", this.rawUptime)
+            .slot("formatted_uptime", formattedUptime())
+            .slot("memory_usage", this.memoryUsage)
+            .slot("swap_usage", this.swapUsage)
+            .slot("max_processor_usage", this.maxProcessorUsage)
+            .slot("mean_processor_usage", this.meanProcessorUsage)
+            .slot("is_charging", this.isCharging)
+            .slot("process_count", this.processCount);
+    }
+    if ((this.present & ANOMALY_SCORE) != 0) {
+      status.slot("anomaly_score", this.anomalyScore);
+    }
+    return status.slot("severity", severity());
+  }
+
+  private String formattedUptime() {
+    final long seconds = this.rawUptime / 1000L;
+    if (seconds != this.formattedSeconds) {
+      this.formattedSeconds = seconds;
+      this.formattedUptime = StatusComputer.formatUptime(this.rawUptime, this.uptimeChars);
+    }
+    return this.formattedUptime;
+  }
+}
@@ -0,0 +1,131 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import swim.monitor.util.IntHashSet;
+import swim.structure.Item;
+import swim.structure.Value;
+
+/**
+ * Reconciles a machine's process table against the latest reported top
+ * processes, only writing entries that meaningfully changed. Not thread-safe.
+ */
+public class ProcessReconciler {
+
+  private final double cpuLoadTolerance;
+  private final double rssTolerance;
+  private final IntHashSet currentPids = new IntHashSet(64);
+  private int[] stalePids = new int[16];
+
+  /**
+   * @param cpuLoadTolerance absolute change in {@code cpu_load} below which
+   *                         a process is considered unchanged
+   * @param rssTolerance     change in {@code rss}, relative to the previous
+   *                         value, below which a process is considered unchanged
+   */
+  public ProcessReconciler(final double cpuLoadTolerance, final double rssTolerance) {
+    this.cpuLoadTolerance = cpuLoadTolerance;
+    this.rssTolerance = rssTolerance;
+  }
+
+  /**
+   * Puts new and changed processes from the update, then removes every
+   * process missing from it. Returns the number of entries written or removed.
+   */
+  public int reconcile(final Map<Integer, Value> processes, final Value update) {
+    int changes = 0;
+    this.currentPids.clear();
+    for (Item item : update) {
+      final Value process = item.toValue();
+      final int pid = process.get("pid").intValue(-1);
+      if (pid > 0) {
+        this.currentPids.add(pid);
+        final Value previous = processes.get(pid);
+        if (previous == null || !isUnchanged(previous, process)) {
+          processes.put(pid, process);
+          changes++;
+        }
+      }
+    }
+
+    // Collect first, so the map isn't modified while its keys are iterated
+    int staleCount = 0;
+    for (int pid : processes.keySet()) {
+      if (!this.currentPids.contains(pid)) {
+        if (staleCount == this.stalePids.length) {
+          this.stalePids = Arrays.copyOf(this.stalePids, staleCount * 2);
+        }
+        this.stalePids[staleCount++] = pid;
+      }
+    }
+    for (int i = 0; i < staleCount; i++) {
+      processes.remove(this.stalePids[i]);
+    }
+    return changes + staleCount;
+  }
+
+  /**
+   * Applies a delta produced by the client's {@code DeltaEncoder}, merging
+   * the changed fields of each process into its current entry and removing
+   * the pids it lists. Returns the number of entries written or removed.
+   */
+  public int applyDelta(final Map<Integer, Value> processes, final Value delta) {
+    int changes = 0;
+    final long timestamp = delta.get("timestamp").longValue(0L);
+    for (Item item : delta.get("changed")) {
+      final Value change = item.toValue();
+      final int pid = change.get("pid").intValue(-1);
+      if (pid > 0) {
+        final Value previous = processes.get(pid);
+        final Value process = ValueDelta.merge(previous == null ? Value.absent() : previous, change)
+                .updated("timestamp", timestamp);
+        if (previous == null || !isUnchanged(previous, process)) {
+          processes.put(pid, process);
+          changes++;
+        }
+      }
+    }
+    for (Item item : delta.get("removed")) {
+      if (processes.remove(item.intValue(-1)) != null) {
+        changes++;
+      }
+    }
+    return changes;
+  }
+
+  /**
+   * Returns true if the process only differs from its previous report in
+   * its timestamp and uptime, or in its noisy usage fields within tolerance.
+   */
+  public boolean isUnchanged(final Value previous, final Value process) {
+    if (!previous.isDefined()
+        || !previous.get("name").equals(process.get("name"))
+        || !previous.get("user").equals(process.get("user"))
+        || !previous.get("user_id").equals(process.get("user_id"))
+        || previous.get("priority").intValue(0) != process.get("priority").intValue(0)
+        || previous.get("virtual_size").longValue(0L) != process.get("virtual_size").longValue(0L)) {
+      return false;
+    }
+    final double cpuLoad = process.get("cpu_load").doubleValue(0.0);
+    if (Math.abs(cpuLoad - previous.get("cpu_load").doubleValue(0.0)) > this.cpuLoadTolerance) {
+      return false;
+    }
+    final long rss = process.get("rss").longValue(0L);
+    final long previousRss = previous.get("rss").longValue(0L);
+    return Math.abs(rss - previousRss) <= this.rssTolerance * Math.max(previousRss, 1L);
+  }
+}
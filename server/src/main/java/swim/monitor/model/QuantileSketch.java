@@ -0,0 +1,179 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import java.util.Arrays;
+import swim.structure.Item;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Histogram of non-negative values over logarithmically sized buckets, so
+ * that every quantile it reports is within a fixed relative error of the
+ * true one. Values can be removed as well as added, and sketches of the
+ * same accuracy can be merged and unmerged, which lets a cluster replace a
+ * single member's contribution without a pass over every member.
+ * Not thread-safe.
+ */
+public class QuantileSketch {
+
+  // Values at or below this are counted in the zero bucket
+  private static final double MIN_VALUE = 1.0e-9;
+
+  private final double gamma;
+  private final double logGamma;
+  private long[] counts = new long[0];
+  // Bucket index of counts[0]
+  private int offset;
+  private long zeroCount;
+  private long count;
+
+  /**
+   * @param relativeAccuracy maximum relative error of a reported quantile
+   */
+  public QuantileSketch(final double relativeAccuracy) {
+    this.gamma = (1.0 + relativeAccuracy) / (1.0 - relativeAccuracy);
+    this.logGamma = Math.log(this.gamma);
+  }
+
+  public long count() {
+    return this.count;
+  }
+
+  public void add(final double value) {
+    add(value, 1L);
+  }
+
+  public void remove(final double value) {
+    add(value, -1L);
+  }
+
+  private void add(final double value, final long n) {
+    if (!(value > MIN_VALUE)) {
+      this.zeroCount += n;
+    } else {
+      final int slot = slot((int) Math.ceil(Math.log(value) / this.logGamma));
+      this.counts[slot] += n;
+    }
+    this.count += n;
+  }
+
+  public void addAll(final QuantileSketch sketch) {
+    merge(sketch, 1L);
+  }
+
+  public void removeAll(final QuantileSketch sketch) {
+    merge(sketch, -1L);
+  }
+
+  private void merge(final QuantileSketch sketch, final long sign) {
+    final long[] counts = sketch.counts;
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0L) {
+        final int slot = slot(sketch.offset + i);
+        this.counts[slot] += sign * counts[i];
+      }
+    }
+    this.zeroCount += sign * sketch.zeroCount;
+    this.count += sign * sketch.count;
+  }
+
+  /**
+   * Returns the position in {@code counts} of a bucket, growing the array to cover it.
+   * Must be called before {@code counts} is dereferenced, as it may replace the array.
+   */
+  private int slot(final int index) {
+    if (this.counts.length == 0) {
+      this.counts = new long[16];
+      this.offset = index - 8;
+    } else if (index < this.offset) {
+      final int shift = Math.max(this.offset - index, this.counts.length / 2);
+      final long[] counts = new long[this.counts.length + shift];
+      System.arraycopy(this.counts, 0, counts, shift, this.counts.length);
+      this.counts = counts;
+      this.offset -= shift;
+    } else if (index >= this.offset + this.counts.length) {
+      final int length = Math.max(index - this.offset + 1, this.counts.length + this.counts.length / 2);
+      this.counts = Arrays.copyOf(this.counts, length);
+    }
+    return index - this.offset;
+  }
+
+  /**
+   * Returns the value at quantile {@code q} in [0, 1], or the default value if empty.
+   */
+  public double quantile(final double q, final double defaultValue) {
+    if (this.count <= 0L) {
+      return defaultValue;
+    }
+    final long rank = (long) (q * (this.count - 1L));
+    long seen = this.zeroCount;
+    if (rank < seen) {
+      return 0.0;
+    }
+    for (int i = 0; i < this.counts.length; i++) {
+      seen += this.counts[i];
+      if (rank < seen) {
+        // Midpoint of the bucket, in relative terms
+        return 2.0 * Math.pow(this.gamma, this.offset + i) / (this.gamma + 1.0);
+      }
+    }
+    return defaultValue;
+  }
+
+  public void clear() {
+    Arrays.fill(this.counts, 0L);
+    this.zeroCount = 0L;
+    this.count = 0L;
+  }
+
+  /**
+   * Returns the non-empty range of buckets, as read back by {@link #readFrom(Value)}.
+   */
+  public Value toValue() {
+    int from = 0;
+    int until = this.counts.length;
+    while (from < until && this.counts[from] == 0L) {
+      from++;
+    }
+    while (until > from && this.counts[until - 1] == 0L) {
+      until--;
+    }
+    final Record buckets = Record.create(until - from);
+    for (int i = from; i < until; i++) {
+      buckets.item(this.counts[i]);
+    }
+    return Record.create(3)
+            .slot("zero", this.zeroCount)
+            .slot("offset", this.offset + from)
+            .slot("buckets", buckets);
+  }
+
+  public void readFrom(final Value sketch) {
+    clear();
+    this.zeroCount = sketch.get("zero").longValue(0L);
+    this.count = this.zeroCount;
+    int index = sketch.get("offset").intValue(0);
+    for (Item bucket : sketch.get("buckets")) {
+      final long n = bucket.longValue(0L);
+      if (n != 0L) {
+        final int slot = slot(index);
+        this.counts[slot] += n;
+        this.count += n;
+      }
+      index++;
+    }
+  }
+}
@@ -14,12 +14,28 @@
 
 package swim.monitor.model;
 
-import java.time.Duration;
-import swim.structure.Item;
+import swim.monitor.util.MonitorMetrics;
 import swim.structure.Value;
 
 public class StatusComputer {
 
+  // Metrics of a machine status retained in its statusHistory
+  public static final HistorySchema HISTORY_SCHEMA = new HistorySchema()
+          .column("latency", HistorySchema.Type.LONG)
+          .column("updating", HistorySchema.Type.BOOLEAN)
+          .column("disconnected", HistorySchema.Type.BOOLEAN)
+          .column("severity", HistorySchema.Type.FLOAT)
+          .column("average_system_load", HistorySchema.Type.DOUBLE)
+          .column("cpu_temperature", HistorySchema.Type.DOUBLE)
+          .column("raw_uptime", HistorySchema.Type.LONG)
+          .column("memory_usage", HistorySchema.Type.FLOAT)
+          .column("swap_usage", HistorySchema.Type.FLOAT)
+          .column("max_processor_usage", HistorySchema.Type.FLOAT)
+          .column("mean_processor_usage", HistorySchema.Type.FLOAT)
+          .column("is_charging", HistorySchema.Type.BOOLEAN)
+          .column("process_count", HistorySchema.Type.INT)
+          .column("anomaly_score", HistorySchema.Type.FLOAT);
+
   public static Value computeSeverityFromStatus(final Value currentStatus) {
     float severity = 0.0f;
 
@@ -30,70 +46,74 @@ public class StatusComputer {
     if (!currentStatus.get("updating").booleanValue(true)) {
       severity = 2.0f;
     } else {
-      final long latency = Math.min(currentStatus.get("latency").longValue(0L), 200L);
-      final float memoryUsage = currentStatus.get("memory_usage").floatValue(0.0f);
-      final double avgSystemLoad = currentStatus.get("average_system_load").doubleValue(0.0);
-
-      severity = (((float) latency / 100f) + (memoryUsage) + ((float) avgSystemLoad  / 100f)) / 2f;
+      severity = severity(currentStatus.get("latency").longValue(0L),
+                          currentStatus.get("memory_usage").floatValue(0.0f),
+                          currentStatus.get("average_system_load").doubleValue(0.0));
     }
 
     return currentStatus.updated("severity", severity);
 
   }
 
-  public static Value computeStatusFromUsage(Value currentStatus, final Value usage) {
+  public static float severity(final long latency, final float memoryUsage, final double avgSystemLoad) {
+    MonitorMetrics.SEVERITY_COMPUTATIONS.increment();
+    return (((float) Math.min(latency, 200L) / 100f) + (memoryUsage) + ((float) avgSystemLoad  / 100f)) / 2f;
+  }
 
-    // Memory
-    final Value memory = usage.get("hardware").get("memory");
-    final long available = memory.get("available").longValue(0);
-    final long total = memory.get("total").longValue(0);
-    final float memoryUsage = 1.0f - (total == 0L ? 0.0f : (float) available / (float) total);
-    final long swapTotal = memory.get("swap_total").longValue(0L);
-    final long swapUsed = memory.get("swap_used").longValue(0L);
-    final float swapUsage = (float) swapUsed / (float) swapTotal;
+  public static Value computeStatusFromUsage(final Value currentStatus, final Value usage) {
+    final MachineStatus status = new MachineStatus();
+    status.readFrom(currentStatus);
+    status.applyUsage(usage);
+    return status.writeUsageTo(currentStatus);
+  }
 
-    // CPU
-    final Value processor = usage.get("hardware").get("processor");
-    final long maxProcessorFrequency = processor.get("max_frequency").longValue(0L);
-    final Value currentFrequenciesValue = processor.get("current_frequency");
-    long totalFrequency = 0L;
-    long currentMaxFrequency = 0L;
-    for (final Item currentFrequencyItem : currentFrequenciesValue) {
-      final long currentFrequency = currentFrequencyItem.longValue(0L);
-      totalFrequency += currentFrequency;
-      if (currentFrequency > currentMaxFrequency) {
-        currentMaxFrequency = currentFrequency;
-      }
-    }
-    final float meanProcessorUsage = (float) (totalFrequency / currentFrequenciesValue.length()) / (float) (maxProcessorFrequency);
-    final float maxProcessorUsage = (float) currentMaxFrequency / (float) maxProcessorFrequency;
+  public static String formatUptime(final long upTime) {
+    return formatUptime(upTime, new char[24]);
+  }
 
-    if (processor.get("average_system_load").isDefined()) {
-      final double averageSystemLoad = processor.get("average_system_load").doubleValue(-1);
-      currentStatus = currentStatus.updated("average_system_load", averageSystemLoad);
+  /**
+   * Formats an uptime as {@code DD:HH:MM:SS} using the given scratch buffer,
+   * equivalent to {@code String.format("%02d:%02d:%02d:%02d", ...)}.
+   */
+  static String formatUptime(final long upTime, final char[] chars) {
+    final long seconds = upTime / 1000L;
+    int length = 0;
+    long days = seconds / 86400L;
+    if (days < 10L) {
+      chars[length++] = '0';
     }
-
-    if (processor.get("temperature").isDefined()) {
-      final double cpuTemperature = processor.get("temperature").doubleValue(Double.NaN);
-      currentStatus = currentStatus.updated("cpu_temperature", cpuTemperature);
+    // Days are unbounded; write their digits backwards then reverse them
+    final int start = length;
+    do {
+      chars[length++] = (char) ('0' + days % 10L);
+      days /= 10L;
+    } while (days > 0L);
+    for (int i = start, j = length - 1; i < j; i++, j--) {
+      final char c = chars[i];
+      chars[i] = chars[j];
+      chars[j] = c;
     }
+    length = appendTwoDigits(chars, length, (int) (seconds / 3600L % 24L));
+    length = appendTwoDigits(chars, length, (int) (seconds / 60L % 60L));
+    length = appendTwoDigits(chars, length, (int) (seconds % 60L));
+    return new String(chars, 0, length);
+  }
 
-    long upTime = usage.get("os").get("uptime").longValue(0L);
-    Duration duration = Duration.ofMillis(upTime);
-    long DD = duration.toDays();
-    long HH = duration.toHoursPart();
-    long MM = duration.toMinutesPart();
-    long SS = duration.toSecondsPart();
-    String timeInDDHHMMSS = String.format("%02d:%02d:%02d:%02d", DD, HH, MM, SS);
+  private static int appendTwoDigits(final char[] chars, int length, final int value) {
+    chars[length++] = ':';
+    chars[length++] = (char) ('0' + value / 10);
+    chars[length++] = (char) ('0' + value % 10);
+    return length;
+  }
 
-    return currentStatus
-            .updated("raw_uptime", upTime)
-            .updated("formatted_uptime", timeInDDHHMMSS)
-            .updated("memory_usage", memoryUsage)
-            .updated("swap_usage", swapUsage)
-            .updated("max_processor_usage", maxProcessorUsage)
-            .updated("mean_processor_usage", meanProcessorUsage)
-            .updated("is_charging", usage.get("hardware").get("is_charging").booleanValue())
-            .updated("process_count", usage.get("os").get("process_count").intValue(0));
+  /**
+   * Restores the derived fields of a status sample read back from history.
+   */
+  public static Value withDerivedFields(final Value sample) {
+    final Value upTime = sample.get("raw_uptime");
+    if (upTime.isDefined()) {
+      return sample.updated("formatted_uptime", formatUptime(upTime.longValue(0L)));
+    }
+    return sample;
   }
-}
\ No newline at end of file
+}
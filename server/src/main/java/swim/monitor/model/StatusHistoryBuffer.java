@@ -0,0 +1,201 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import java.util.Arrays;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Columnar ring buffer of status samples, keeping one primitive column per
+ * schema metric. Records are only materialized when a sample is read.
+ */
+public class StatusHistoryBuffer extends HistoryRing {
+
+  private final HistorySchema schema;
+  // Index of each column within the array of its type
+  private final int[] slots;
+  private long[][] longColumns;
+  private int[][] intColumns;
+  private float[][] floatColumns;
+  private double[][] doubleColumns;
+  private long[] present;
+  private long[] flags;
+
+  public StatusHistoryBuffer(final HistorySchema schema, final int capacity) {
+    super(capacity);
+    this.schema = schema;
+    this.slots = new int[schema.size()];
+    int longCount = 0;
+    int intCount = 0;
+    int floatCount = 0;
+    int doubleCount = 0;
+    for (int column = 0; column < schema.size(); column++) {
+      switch (schema.type(column)) {
+        case LONG: this.slots[column] = longCount++; break;
+        case INT: this.slots[column] = intCount++; break;
+        case FLOAT: this.slots[column] = floatCount++; break;
+        case DOUBLE: this.slots[column] = doubleCount++; break;
+        default: this.slots[column] = column;
+      }
+    }
+    final int length = this.timestamps.length;
+    this.longColumns = new long[longCount][length];
+    this.intColumns = new int[intCount][length];
+    this.floatColumns = new float[floatCount][length];
+    this.doubleColumns = new double[doubleCount][length];
+    this.present = new long[length];
+    this.flags = new long[length];
+  }
+
+  public HistorySchema schema() {
+    return this.schema;
+  }
+
+  /**
+   * Stores the known metrics of a sample, replacing any sample with the same
+   * timestamp. Returns the timestamp evicted to make room, which is the
+   * given timestamp itself if it is too old to be retained, or 0.
+   */
+  public long put(final long timestamp, final Value sample) {
+    final int row = insert(timestamp);
+    if (row < 0) {
+      return timestamp;
+    }
+    long present = 0L;
+    long flags = 0L;
+    for (int column = 0; column < this.slots.length; column++) {
+      final Value value = sample.get(this.schema.name(column));
+      if (value.isDefined()) {
+        final long bit = 1L << column;
+        present |= bit;
+        final int slot = this.slots[column];
+        switch (this.schema.type(column)) {
+          case LONG: this.longColumns[slot][row] = value.longValue(0L); break;
+          case INT: this.intColumns[slot][row] = value.intValue(0); break;
+          case FLOAT: this.floatColumns[slot][row] = value.floatValue(0.0f); break;
+          case DOUBLE: this.doubleColumns[slot][row] = value.doubleValue(0.0); break;
+          default:
+            if (value.booleanValue(false)) {
+              flags |= bit;
+            }
+        }
+      }
+    }
+    this.present[row] = present;
+    this.flags[row] = flags;
+    return this.evicted;
+  }
+
+  /**
+   * Materializes the sample with the given timestamp, or returns absent if
+   * it is no longer retained.
+   */
+  public Value get(final long timestamp) {
+    final int index = indexOf(timestamp);
+    if (index < 0) {
+      return Value.absent();
+    }
+    final int row = row(index);
+    final long present = this.present[row];
+    final Record sample = Record.create(Long.bitCount(present));
+    for (int column = 0; column < this.slots.length; column++) {
+      if ((present & (1L << column)) != 0L) {
+        final String name = this.schema.name(column);
+        final int slot = this.slots[column];
+        switch (this.schema.type(column)) {
+          case LONG: sample.slot(name, this.longColumns[slot][row]); break;
+          case INT: sample.slot(name, this.intColumns[slot][row]); break;
+          case FLOAT: sample.slot(name, this.floatColumns[slot][row]); break;
+          case DOUBLE: sample.slot(name, this.doubleColumns[slot][row]); break;
+          default: sample.slot(name, (this.flags[row] & (1L << column)) != 0L);
+        }
+      }
+    }
+    return sample;
+  }
+
+  @Override
+  public boolean isPresent(final int index, final int column) {
+    return (this.present[row(index)] & (1L << column)) != 0L;
+  }
+
+  /**
+   * Returns a numeric metric of the sample at the given logical index.
+   */
+  public double doubleValue(final int index, final int column) {
+    final int row = row(index);
+    final int slot = this.slots[column];
+    switch (this.schema.type(column)) {
+      case LONG: return (double) this.longColumns[slot][row];
+      case INT: return (double) this.intColumns[slot][row];
+      case FLOAT: return (double) this.floatColumns[slot][row];
+      case DOUBLE: return this.doubleColumns[slot][row];
+      default: return (this.flags[row] & (1L << column)) != 0L ? 1.0 : 0.0;
+    }
+  }
+
+  // A sample is its own minimum, maximum and average
+  @Override
+  public double minValue(final int index, final int column) {
+    return doubleValue(index, column);
+  }
+
+  @Override
+  public double maxValue(final int index, final int column) {
+    return doubleValue(index, column);
+  }
+
+  @Override
+  public double avgValue(final int index, final int column) {
+    return doubleValue(index, column);
+  }
+
+  @Override
+  void grow(final int length) {
+    for (int i = 0; i < this.longColumns.length; i++) {
+      this.longColumns[i] = Arrays.copyOf(this.longColumns[i], length);
+    }
+    for (int i = 0; i < this.intColumns.length; i++) {
+      this.intColumns[i] = Arrays.copyOf(this.intColumns[i], length);
+    }
+    for (int i = 0; i < this.floatColumns.length; i++) {
+      this.floatColumns[i] = Arrays.copyOf(this.floatColumns[i], length);
+    }
+    for (int i = 0; i < this.doubleColumns.length; i++) {
+      this.doubleColumns[i] = Arrays.copyOf(this.doubleColumns[i], length);
+    }
+    this.present = Arrays.copyOf(this.present, length);
+    this.flags = Arrays.copyOf(this.flags, length);
+  }
+
+  @Override
+  void moveRow(final int from, final int to) {
+    for (long[] column : this.longColumns) {
+      column[to] = column[from];
+    }
+    for (int[] column : this.intColumns) {
+      column[to] = column[from];
+    }
+    for (float[] column : this.floatColumns) {
+      column[to] = column[from];
+    }
+    for (double[] column : this.doubleColumns) {
+      column[to] = column[from];
+    }
+    this.present[to] = this.present[from];
+    this.flags[to] = this.flags[from];
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import swim.structure.Item;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Fleet-wide ranking of the hottest processes by {@code cpu_load} and by
+ * {@code rss}. Each member, a machine or a cluster shard, contributes only
+ * its own top processes, as produced by {@link #select} or {@link #toValue()};
+ * replacing a member's contribution only touches its own entries in the
+ * ordered indexes. Not thread-safe.
+ */
+public class TopProcesses {
+
+  private static final String CPU = "cpu";
+  private static final String RSS = "rss";
+
+  private final int limit;
+  private final HashMap<Value, Entry[]> contributions = new HashMap<>();
+  private final TreeSet<Entry> byCpu = new TreeSet<>();
+  private final TreeSet<Entry> byRss = new TreeSet<>();
+
+  public TopProcesses(final int limit) {
+    this.limit = limit;
+  }
+
+  /**
+   * Replaces the top processes contributed by a member.
+   */
+  public void update(final Value key, final Value top) {
+    remove(key);
+    final Value cpu = top.get(CPU);
+    final Value rss = top.get(RSS);
+    final Entry[] entries = new Entry[cpu.length() + rss.length()];
+    int count = 0;
+    for (Item item : cpu) {
+      entries[count++] = index(this.byCpu, item.toValue(), "cpu_load");
+    }
+    for (Item item : rss) {
+      entries[count++] = index(this.byRss, item.toValue(), "rss");
+    }
+    this.contributions.put(key, entries);
+  }
+
+  public void remove(final Value key) {
+    final Entry[] entries = this.contributions.remove(key);
+    if (entries != null) {
+      for (Entry entry : entries) {
+        entry.index.remove(entry);
+      }
+    }
+  }
+
+  public Value toValue() {
+    return Record.create(2)
+            .slot(CPU, head(this.byCpu))
+            .slot(RSS, head(this.byRss));
+  }
+
+  private Value head(final TreeSet<Entry> index) {
+    final Record processes = Record.create(Math.min(this.limit, index.size()));
+    final Iterator<Entry> entries = index.iterator();
+    while (entries.hasNext() && processes.length() < this.limit) {
+      processes.add(entries.next().process);
+    }
+    return processes;
+  }
+
+  private static Entry index(final TreeSet<Entry> index, final Value process, final String metric) {
+    final Entry entry = new Entry(index, process, metric);
+    index.add(entry);
+    return entry;
+  }
+
+  /**
+   * Selects a machine's top processes by each metric with a bounded heap,
+   * tagging each with the machine it runs on.
+   */
+  public static Value select(final Iterable<Value> processes, final String machine, final int limit) {
+    return Record.create(2)
+            .slot(CPU, select(processes, machine, limit, "cpu_load"))
+            .slot(RSS, select(processes, machine, limit, "rss"));
+  }
+
+  private static Value select(final Iterable<Value> processes, final String machine,
+                              final int limit, final String metric) {
+    // Min-heap of the largest values seen so far
+    final Comparator<Value> order = Comparator.comparingDouble(process -> process.get(metric).doubleValue(0.0));
+    final PriorityQueue<Value> heap = new PriorityQueue<>(limit + 1, order);
+    for (Value process : processes) {
+      heap.add(process);
+      if (heap.size() > limit) {
+        heap.poll();
+      }
+    }
+    final Value[] top = new Value[heap.size()];
+    for (int i = top.length - 1; i >= 0; i--) {
+      top[i] = heap.poll().updated("machine", machine);
+    }
+    final Record record = Record.create(top.length);
+    for (Value process : top) {
+      record.add(process);
+    }
+    return record;
+  }
+
+  /**
+   * Process ordered by descending metric, then by machine and pid so that
+   * distinct processes never compare equal.
+   */
+  static final class Entry implements Comparable<Entry> {
+
+    final TreeSet<Entry> index;
+    final Value process;
+    final double value;
+    final String machine;
+    final int pid;
+
+    Entry(final TreeSet<Entry> index, final Value process, final String metric) {
+      this.index = index;
+      this.process = process;
+      this.value = process.get(metric).doubleValue(0.0);
+      this.machine = process.get("machine").stringValue("");
+      this.pid = process.get("pid").intValue(0);
+    }
+
+    @Override
+    public int compareTo(final Entry that) {
+      int order = Double.compare(that.value, this.value);
+      if (order == 0) {
+        order = this.machine.compareTo(that.machine);
+        if (order == 0) {
+          order = Integer.compare(this.pid, that.pid);
+        }
+      }
+      return order;
+    }
+  }
+}
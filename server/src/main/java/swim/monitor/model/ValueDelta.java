@@ -0,0 +1,62 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import swim.structure.Item;
+import swim.structure.Record;
+import swim.structure.Slot;
+import swim.structure.Value;
+
+public class ValueDelta {
+
+  /**
+   * Value of a delta slot whose field was removed.
+   */
+  public static final Value REMOVED = Value.extant();
+
+  /**
+   * Returns a copy of {@code base} with every slot of {@code delta} applied,
+   * recursing into nested records so a delta only needs to carry the leaves
+   * that changed. Slots set to {@link #REMOVED} are dropped.
+   */
+  public static Value merge(final Value base, final Value delta) {
+    if (!(delta instanceof Record)) {
+      return delta;
+    } else if (!(base instanceof Record)) {
+      // Still drops removals of fields the receiver never had, e.g. after a restart
+      return merge(Record.empty(), delta);
+    }
+    final Record merged = Record.create(base.length() + delta.length());
+    for (Item item : base) {
+      if (item instanceof Slot) {
+        final Value key = item.key();
+        final Value update = delta.get(key);
+        if (!update.isDefined()) {
+          merged.slot(key, item.toValue());
+        } else if (!REMOVED.equals(update)) {
+          merged.slot(key, merge(item.toValue(), update));
+        }
+      } else {
+        merged.add(item);
+      }
+    }
+    for (Item item : delta) {
+      if (item instanceof Slot && !base.get(item.key()).isDefined() && !REMOVED.equals(item.toValue())) {
+        merged.add(item);
+      }
+    }
+    return merged;
+  }
+}
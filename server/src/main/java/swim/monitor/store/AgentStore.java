@@ -0,0 +1,174 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.store;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.uri.Uri;
+import swim.uri.UriPattern;
+
+/**
+ * Directory of segment logs, one per persisted lane of an agent. Stores are
+ * only opened when {@code monitor.store.dir} is set. Appends are buffered;
+ * the agent is told when a flush is due and flushes them in one go.
+ */
+public class AgentStore {
+
+  private static final String STORE_DIR = System.getProperty("monitor.store.dir", "");
+  // Logs smaller than this are never compacted
+  private static final long COMPACTION_THRESHOLD = Long.parseLong(System.getProperty("monitor.store.compact.bytes", "262144"));
+  // Stores of agents that haven't written to any log for this many milliseconds are deleted
+  private static final long RETENTION = Long.parseLong(System.getProperty("monitor.store.retention", "604800000"));
+
+  private final Path directory;
+  private final Consumer<IOException> errorHandler;
+  private final Runnable didAppend;
+  private final List<SegmentLog> logs = new ArrayList<>();
+
+  AgentStore(final Path directory, final Consumer<IOException> errorHandler, final Runnable didAppend) {
+    this.directory = directory;
+    this.errorHandler = errorHandler;
+    this.didAppend = didAppend;
+  }
+
+  public static boolean isEnabled() {
+    return !STORE_DIR.isEmpty();
+  }
+
+  /**
+   * Opens the store of the agent with the given node URI, or returns null if
+   * persistence is disabled or the store can't be created. {@code didAppend}
+   * is called after every append, and should schedule a {@link #flush()}.
+   */
+  public static AgentStore open(final Uri nodeUri, final Consumer<IOException> errorHandler,
+                                final Runnable didAppend) {
+    if (!isEnabled()) {
+      return null;
+    }
+    final Path directory = Paths.get(STORE_DIR, URLEncoder.encode(nodeUri.toString(), StandardCharsets.UTF_8));
+    try {
+      Files.createDirectories(directory);
+    } catch (IOException e) {
+      errorHandler.accept(e);
+      return null;
+    }
+    return new AgentStore(directory, errorHandler, didAppend);
+  }
+
+  /**
+   * Returns the node URIs of the persisted agents that match the pattern.
+   */
+  public static List<Uri> nodeUris(final UriPattern pattern) throws IOException {
+    final List<Uri> nodeUris = new ArrayList<>();
+    if (isEnabled() && Files.isDirectory(Paths.get(STORE_DIR))) {
+      try (DirectoryStream<Path> directories = Files.newDirectoryStream(Paths.get(STORE_DIR))) {
+        for (Path directory : directories) {
+          final Uri nodeUri = Uri.parse(URLDecoder.decode(directory.getFileName().toString(), StandardCharsets.UTF_8));
+          if (pattern.matches(nodeUri)) {
+            nodeUris.add(nodeUri);
+          }
+        }
+      }
+    }
+    return nodeUris;
+  }
+
+  /**
+   * Opens the log of a lane, compacting it from the given snapshot of the lane's records.
+   */
+  public SegmentLog log(final String laneName, final Supplier<Iterator<Value>> snapshot) {
+    final SegmentLog log = new SegmentLog(this.directory.resolve(laneName + ".log"), COMPACTION_THRESHOLD,
+                                          snapshot, this.errorHandler, this.didAppend);
+    this.logs.add(log);
+    return log;
+  }
+
+  /**
+   * Returns whether the agent is worth restoring, i.e. whether any of its
+   * logs was written within the retention window. Only file times are read,
+   * so that deciding doesn't cost a parse of logs the agent parses anyway.
+   */
+  public boolean isRetained(final long now) {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+      for (Path file : files) {
+        if (Files.getLastModifiedTime(file).toMillis() >= now - RETENTION) {
+          return true;
+        }
+      }
+    } catch (IOException e) {
+      this.errorHandler.accept(e);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Deletes every log of the store, and its directory.
+   */
+  public void delete() {
+    close();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+      for (Path file : files) {
+        Files.delete(file);
+      }
+    } catch (IOException e) {
+      this.errorHandler.accept(e);
+    }
+    try {
+      Files.deleteIfExists(this.directory);
+    } catch (IOException e) {
+      this.errorHandler.accept(e);
+    }
+  }
+
+  public void flush() {
+    for (SegmentLog log : this.logs) {
+      log.flush();
+    }
+  }
+
+  public void close() {
+    for (SegmentLog log : this.logs) {
+      log.close();
+    }
+  }
+
+  /**
+   * Returns the record of a map lane entry.
+   */
+  public static Value entry(final Value key, final Value value) {
+    return Record.create(2).slot("key", key).slot("value", value);
+  }
+
+  /**
+   * Returns the record of a map lane entry's removal.
+   */
+  public static Value removal(final Value key) {
+    return Record.create(1).slot("key", key);
+  }
+}
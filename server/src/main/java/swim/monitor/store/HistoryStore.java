@@ -0,0 +1,105 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.store;
+
+import java.util.Iterator;
+import java.util.function.LongFunction;
+import swim.monitor.model.HistoryRollup;
+import swim.monitor.model.StatusHistoryBuffer;
+import swim.structure.Num;
+import swim.structure.Value;
+
+/**
+ * Persists a status history and its downsampled tiers, each to the log of
+ * its lane. Recent samples are loaded eagerly; a tier is only loaded the
+ * first time it's read or compacted. Not thread-safe.
+ */
+public class HistoryStore {
+
+  private final StatusHistoryBuffer history;
+  private final SegmentLog historyLog;
+  private final HistoryRollup[] tiers;
+  private final SegmentLog[] tierLogs;
+  private final boolean[] tiersLoaded;
+
+  public HistoryStore(final AgentStore store, final String laneName, final StatusHistoryBuffer history,
+                      final String[] tierLaneNames, final HistoryRollup... tiers) {
+    this.history = history;
+    this.historyLog = store.log(laneName, this::historySnapshot);
+    this.tiers = tiers;
+    this.tierLogs = new SegmentLog[tiers.length];
+    this.tiersLoaded = new boolean[tiers.length];
+    for (int i = 0; i < tiers.length; i++) {
+      final int tier = i;
+      this.tierLogs[i] = store.log(tierLaneNames[i], () -> tierSnapshot(tier));
+    }
+  }
+
+  public void loadHistory() {
+    this.historyLog.load(record -> this.history.put(record.get("key").longValue(0L), record.get("value")));
+  }
+
+  /**
+   * Loads the tier's persisted buckets, unless they already have been.
+   */
+  public void loadTier(final HistoryRollup rollup) {
+    final int tier = indexOf(rollup);
+    if (!this.tiersLoaded[tier]) {
+      this.tiersLoaded[tier] = true;
+      this.tierLogs[tier].load(record -> rollup.restore(record.get("key").longValue(0L), record.get("value")));
+    }
+  }
+
+  public void didAppend(final long timestamp) {
+    this.historyLog.append(AgentStore.entry(Num.from(timestamp), this.history.get(timestamp)));
+  }
+
+  public void didClose(final HistoryRollup rollup, final long timestamp) {
+    this.tierLogs[indexOf(rollup)].append(AgentStore.entry(Num.from(timestamp), rollup.get(timestamp)));
+  }
+
+  private int indexOf(final HistoryRollup rollup) {
+    for (int i = 0; i < this.tiers.length; i++) {
+      if (this.tiers[i] == rollup) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("unknown tier");
+  }
+
+  private Iterator<Value> historySnapshot() {
+    return snapshot(this.history.timestamps(), this.history::get);
+  }
+
+  private Iterator<Value> tierSnapshot(final int tier) {
+    loadTier(this.tiers[tier]);
+    return snapshot(this.tiers[tier].timestamps(), this.tiers[tier]::get);
+  }
+
+  private static Iterator<Value> snapshot(final Iterator<Long> timestamps, final LongFunction<Value> get) {
+    return new Iterator<Value>() {
+      @Override
+      public boolean hasNext() {
+        return timestamps.hasNext();
+      }
+
+      @Override
+      public Value next() {
+        final long timestamp = timestamps.next();
+        return AgentStore.entry(Num.from(timestamp), get.apply(timestamp));
+      }
+    };
+  }
+}
@@ -0,0 +1,196 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import swim.recon.Recon;
+import swim.structure.Value;
+
+/**
+ * Append-only log of values for a single lane. Once it has grown well past
+ * its size after the last compaction, it is rewritten from a snapshot of
+ * the lane. The log is truncated before the first record that is torn by a
+ * crash or corrupt the next time it is loaded. Appends are buffered until
+ * the store is flushed. I/O errors are reported to the store's error
+ * handler rather than thrown. Not thread-safe.
+ */
+public class SegmentLog {
+
+  private final Path path;
+  private final long compactionThreshold;
+  private final Supplier<Iterator<Value>> snapshot;
+  private final Consumer<IOException> errorHandler;
+  private final Runnable didAppend;
+  private DataOutputStream output;
+  private long size;
+  private long compactedSize;
+
+  SegmentLog(final Path path, final long compactionThreshold,
+             final Supplier<Iterator<Value>> snapshot, final Consumer<IOException> errorHandler,
+             final Runnable didAppend) {
+    this.path = path;
+    this.compactionThreshold = compactionThreshold;
+    this.snapshot = snapshot;
+    this.errorHandler = errorHandler;
+    this.didAppend = didAppend;
+  }
+
+  /**
+   * Passes every record in the log to the consumer, oldest first.
+   */
+  public void load(final Consumer<Value> consumer) {
+    try {
+      if (Files.exists(this.path)) {
+        read(consumer);
+      }
+    } catch (IOException e) {
+      this.errorHandler.accept(e);
+    }
+  }
+
+  private void read(final Consumer<Value> consumer) throws IOException {
+    final long fileSize = Files.size(this.path);
+    long valid = 0L;
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.path.toFile())))) {
+      while (true) {
+        final byte[] bytes = readRecord(input, fileSize - valid - 4L);
+        if (bytes == null) {
+          break;
+        }
+        final Value record;
+        try {
+          record = Recon.parse(new String(bytes, StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+          break;
+        }
+        consumer.accept(record);
+        valid += 4L + bytes.length;
+      }
+    }
+    if (valid < fileSize) {
+      try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.WRITE)) {
+        channel.truncate(valid);
+      }
+    }
+    this.size = valid;
+    this.compactedSize = valid;
+  }
+
+  /**
+   * Returns the next record, or null if the rest of the log doesn't hold a
+   * whole one, including if its length is corrupt.
+   */
+  static byte[] readRecord(final DataInputStream input, final long remaining) throws IOException {
+    try {
+      final int length = input.readInt();
+      if (length < 0 || length > remaining) {
+        return null;
+      }
+      final byte[] bytes = new byte[length];
+      input.readFully(bytes);
+      return bytes;
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Appends a record, then compacts the log if it has grown enough.
+   */
+  public void append(final Value record) {
+    try {
+      if (this.output == null) {
+        this.output = openOutput(this.path, true);
+        this.size = Files.size(this.path);
+      }
+      this.size += write(this.output, record);
+      this.didAppend.run();
+      if (this.size > this.compactionThreshold && this.size > 2L * this.compactedSize) {
+        // The snapshot already includes the record just appended
+        compact(this.snapshot.get());
+      }
+    } catch (IOException e) {
+      this.errorHandler.accept(e);
+    }
+  }
+
+  /**
+   * Atomically replaces the log with the given records.
+   */
+  private void compact(final Iterator<Value> records) throws IOException {
+    close();
+    final Path temp = this.path.resolveSibling(this.path.getFileName() + ".compact");
+    long size = 0L;
+    try (DataOutputStream output = openOutput(temp, false)) {
+      while (records.hasNext()) {
+        size += write(output, records.next());
+      }
+    }
+    Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    this.size = size;
+    this.compactedSize = size;
+  }
+
+  /**
+   * Writes out the records appended since the last flush.
+   */
+  public void flush() {
+    if (this.output != null) {
+      try {
+        this.output.flush();
+      } catch (IOException e) {
+        this.errorHandler.accept(e);
+      }
+    }
+  }
+
+  public void close() {
+    if (this.output != null) {
+      try {
+        this.output.close();
+      } catch (IOException e) {
+        this.errorHandler.accept(e);
+      }
+      this.output = null;
+    }
+  }
+
+  private static DataOutputStream openOutput(final Path path, final boolean append) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile(), append)));
+  }
+
+  private static int write(final DataOutputStream output, final Value record) throws IOException {
+    final byte[] bytes = Recon.toString(record).getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+    return 4 + bytes.length;
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of primitive ints, for hot paths that would
+ * otherwise box every key. Not thread-safe.
+ */
+public class IntHashSet {
+
+  // 0 marks an empty bucket, so membership of 0 itself is tracked separately
+  private int[] keys;
+  private int size;
+  private boolean containsZero;
+
+  public IntHashSet() {
+    this(16);
+  }
+
+  public IntHashSet(final int expectedSize) {
+    this.keys = new int[tableSize(expectedSize)];
+  }
+
+  private static int tableSize(final int expectedSize) {
+    final int size = Math.max(4, expectedSize * 2);
+    return Integer.highestOneBit(size - 1) << 1;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  public boolean contains(final int key) {
+    if (key == 0) {
+      return this.containsZero;
+    }
+    final int mask = this.keys.length - 1;
+    int index = hash(key) & mask;
+    int k;
+    while ((k = this.keys[index]) != 0) {
+      if (k == key) {
+        return true;
+      }
+      index = (index + 1) & mask;
+    }
+    return false;
+  }
+
+  public boolean add(final int key) {
+    if (key == 0) {
+      if (this.containsZero) {
+        return false;
+      }
+      this.containsZero = true;
+      this.size++;
+      return true;
+    }
+    if ((this.size + 1) * 2 > this.keys.length) {
+      rehash(this.keys.length * 2);
+    }
+    final int mask = this.keys.length - 1;
+    int index = hash(key) & mask;
+    int k;
+    while ((k = this.keys[index]) != 0) {
+      if (k == key) {
+        return false;
+      }
+      index = (index + 1) & mask;
+    }
+    this.keys[index] = key;
+    this.size++;
+    return true;
+  }
+
+  public void clear() {
+    if (this.size > 0) {
+      Arrays.fill(this.keys, 0);
+      this.containsZero = false;
+      this.size = 0;
+    }
+  }
+
+  private void rehash(final int length) {
+    final int[] oldKeys = this.keys;
+    this.keys = new int[length];
+    final int mask = length - 1;
+    for (int key : oldKeys) {
+      if (key != 0) {
+        int index = hash(key) & mask;
+        while (this.keys[index] != 0) {
+          index = (index + 1) & mask;
+        }
+        this.keys[index] = key;
+      }
+    }
+  }
+
+  private static int hash(final int key) {
+    final int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
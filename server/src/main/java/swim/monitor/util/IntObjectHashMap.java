@@ -0,0 +1,159 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.util;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Open addressing hash map from primitive ints to objects, for hot paths
+ * that would otherwise box every key. Null values are not supported.
+ * Not thread-safe.
+ */
+public class IntObjectHashMap<V> {
+
+  private int[] keys;
+  private Object[] values;
+  private int size;
+  private int[] removals = new int[16];
+
+  public IntObjectHashMap() {
+    this(16);
+  }
+
+  public IntObjectHashMap(final int expectedSize) {
+    final int length = Integer.highestOneBit(Math.max(4, expectedSize * 2) - 1) << 1;
+    this.keys = new int[length];
+    this.values = new Object[length];
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(final int key) {
+    final int index = indexOf(key);
+    return index < 0 ? null : (V) this.values[index];
+  }
+
+  @SuppressWarnings("unchecked")
+  public V put(final int key, final V value) {
+    if ((this.size + 1) * 2 > this.keys.length) {
+      rehash(this.keys.length * 2);
+    }
+    final int mask = this.keys.length - 1;
+    int index = hash(key) & mask;
+    while (this.values[index] != null) {
+      if (this.keys[index] == key) {
+        final V oldValue = (V) this.values[index];
+        this.values[index] = value;
+        return oldValue;
+      }
+      index = (index + 1) & mask;
+    }
+    this.keys[index] = key;
+    this.values[index] = value;
+    this.size++;
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V remove(final int key) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return null;
+    }
+    final V oldValue = (V) this.values[index];
+    this.size--;
+    // Shift later entries of the probe sequence back into the gap
+    final int mask = this.keys.length - 1;
+    int next = (index + 1) & mask;
+    while (this.values[next] != null) {
+      final int home = hash(this.keys[next]) & mask;
+      if (((next - home) & mask) >= ((next - index) & mask)) {
+        this.keys[index] = this.keys[next];
+        this.values[index] = this.values[next];
+        index = next;
+      }
+      next = (next + 1) & mask;
+    }
+    this.values[index] = null;
+    return oldValue;
+  }
+
+  public void clear() {
+    if (this.size > 0) {
+      Arrays.fill(this.values, null);
+      this.size = 0;
+    }
+  }
+
+  /**
+   * Removes every entry whose value matches the predicate, returning the
+   * number of entries removed.
+   */
+  @SuppressWarnings("unchecked")
+  public int removeIf(final Predicate<V> predicate) {
+    int count = 0;
+    for (int i = 0; i < this.values.length; i++) {
+      if (this.values[i] != null && predicate.test((V) this.values[i])) {
+        if (count == this.removals.length) {
+          this.removals = Arrays.copyOf(this.removals, count * 2);
+        }
+        this.removals[count++] = this.keys[i];
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      remove(this.removals[i]);
+    }
+    return count;
+  }
+
+  private int indexOf(final int key) {
+    final int mask = this.keys.length - 1;
+    int index = hash(key) & mask;
+    while (this.values[index] != null) {
+      if (this.keys[index] == key) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+
+  private void rehash(final int length) {
+    final int[] oldKeys = this.keys;
+    final Object[] oldValues = this.values;
+    this.keys = new int[length];
+    this.values = new Object[length];
+    final int mask = length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldValues[i] != null) {
+        int index = hash(oldKeys[i]) & mask;
+        while (this.values[index] != null) {
+          index = (index + 1) & mask;
+        }
+        this.keys[index] = oldKeys[i];
+        this.values[index] = oldValues[i];
+      }
+    }
+  }
+
+  private static int hash(final int key) {
+    final int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.util;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Histogram of durations over power-of-two buckets, recorded without locks
+ * from any number of threads. Reading it drains it, so each snapshot covers
+ * the durations recorded since the previous one.
+ */
+public class LatencyHistogram {
+
+  // Bucket i counts durations in [2^(i-1), 2^i) nanoseconds
+  private final LongAdder[] buckets = new LongAdder[64];
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+  public LatencyHistogram() {
+    for (int i = 0; i < this.buckets.length; i++) {
+      this.buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(final long nanos) {
+    final long duration = Math.max(0L, nanos);
+    this.buckets[64 - Long.numberOfLeadingZeros(duration)].increment();
+    this.total.add(duration);
+    this.max.accumulate(duration);
+  }
+
+  /**
+   * Returns the count, mean, p50, p99 and max of the durations recorded
+   * since the last snapshot, in microseconds, and resets the histogram.
+   */
+  public Value snapshot() {
+    final long[] counts = new long[this.buckets.length];
+    long count = 0L;
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = this.buckets[i].sumThenReset();
+      count += counts[i];
+    }
+    final long total = this.total.sumThenReset();
+    final long max = this.max.getThenReset();
+    return Record.create(5)
+            .slot("count", count)
+            .slot("mean_us", count == 0L ? 0L : total / count / 1000L)
+            .slot("p50_us", quantile(counts, count, 0.50) / 1000L)
+            .slot("p99_us", quantile(counts, count, 0.99) / 1000L)
+            .slot("max_us", max / 1000L);
+  }
+
+  // Upper bound of the bucket holding the quantile
+  private static long quantile(final long[] counts, final long count, final double q) {
+    final long rank = (long) Math.ceil(q * count);
+    long seen = 0L;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0L) {
+        return i == 0 ? 0L : 1L << Math.min(i, 62);
+      }
+    }
+    return 0L;
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Process-wide counters and latency histograms of the monitor's hot paths.
+ * Agents hold on to their counters, so recording never looks one up.
+ */
+public final class MonitorMetrics {
+
+  public static final LatencyHistogram MACHINE_STATUS_TIME = new LatencyHistogram();
+  public static final LatencyHistogram CLUSTER_STATUS_TIME = new LatencyHistogram();
+
+  public static final LongAdder SEVERITY_COMPUTATIONS = new LongAdder();
+  public static final LongAdder HISTORY_EVICTIONS = new LongAdder();
+  // Machines or shards that joined or left a cluster
+  public static final LongAdder MEMBERS_JOINED = new LongAdder();
+  public static final LongAdder MEMBERS_LEFT = new LongAdder();
+  public static final LongAdder TIMER_SCHEDULES = new LongAdder();
+
+  private static final Map<String, LongAdder> COMMANDS = new ConcurrentSkipListMap<>();
+
+  // p99 machine status time, in microseconds, beyond which the server asks clients to slow down,
+  // and usage samples per second it's sized for; 0 ignores the sample rate
+  private static final long PRESSURE_STATUS_BUDGET = Long.parseLong(System.getProperty("monitor.pressure.status.budget", "5000"));
+  private static final double PRESSURE_USAGE_CAPACITY = Double.parseDouble(System.getProperty("monitor.pressure.usage.capacity", "0"));
+
+  private static volatile double pressure = 1.0;
+
+  private MonitorMetrics() {
+  }
+
+  /**
+   * Returns the counter of commands received by a lane, e.g. {@code "machine/addUsage"}.
+   */
+  public static LongAdder commandCounter(final String lane) {
+    return COMMANDS.computeIfAbsent(lane, key -> new LongAdder());
+  }
+
+  /**
+   * Returns the factor by which clients should stretch their pulse
+   * interval, 1 unless the server is falling behind, as of the last snapshot.
+   */
+  public static double pressure() {
+    return pressure;
+  }
+
+  /**
+   * Returns the rate of every counter, per second over the given interval,
+   * and the histograms since the last snapshot, then resets them.
+   */
+  public static Value snapshot(final long elapsed) {
+    final double seconds = Math.max(1L, elapsed) / 1000.0;
+    final Record commands = Record.create(COMMANDS.size());
+    for (Map.Entry<String, LongAdder> entry : COMMANDS.entrySet()) {
+      commands.slot(entry.getKey(), entry.getValue().sumThenReset() / seconds);
+    }
+    final Value machineStatusTime = MACHINE_STATUS_TIME.snapshot();
+    updatePressure(machineStatusTime.get("p99_us").longValue(0L),
+                   commands.get("machine/addUsage").doubleValue(0.0) + commands.get("machine/addUsageDelta").doubleValue(0.0));
+    return Record.create(9)
+            .slot("pressure", pressure)
+            .slot("machine_status_time", machineStatusTime)
+            .slot("cluster_status_time", CLUSTER_STATUS_TIME.snapshot())
+            .slot("commands_per_second", commands)
+            .slot("severity_computations_per_second", SEVERITY_COMPUTATIONS.sumThenReset() / seconds)
+            .slot("history_evictions_per_second", HISTORY_EVICTIONS.sumThenReset() / seconds)
+            .slot("members_joined_per_second", MEMBERS_JOINED.sumThenReset() / seconds)
+            .slot("members_left_per_second", MEMBERS_LEFT.sumThenReset() / seconds)
+            .slot("timer_schedules_per_second", TIMER_SCHEDULES.sumThenReset() / seconds);
+  }
+
+  private static void updatePressure(final long statusTime, final double usageRate) {
+    double factor = Math.max(1.0, (double) statusTime / PRESSURE_STATUS_BUDGET);
+    if (PRESSURE_USAGE_CAPACITY > 0.0) {
+      factor = Math.max(factor, usageRate / PRESSURE_USAGE_CAPACITY);
+    }
+    pressure = factor;
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import org.junit.jupiter.api.Test;
+import swim.monitor.model.ValueDelta;
+import swim.structure.Record;
+import swim.structure.Value;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DeltaEncoderTest {
+
+  private static Value usage(final long timestamp, final double cpu, final double memory) {
+    return Record.create(3).slot("timestamp", timestamp).slot("cpu", cpu).slot("memory", memory);
+  }
+
+  @Test
+  public void sendsOnlyChangedFields() {
+    final DeltaEncoder encoder = new DeltaEncoder();
+    encoder.usageKeyframe(usage(1L, 10.0, 50.0));
+    assertEquals(Record.create(2).slot("timestamp", 2L).slot("cpu", 20.0),
+                 encoder.usageDelta(usage(2L, 20.0, 50.0)));
+  }
+
+  @Test
+  public void keepsItsBaseWhenNothingChanged() {
+    final DeltaEncoder encoder = new DeltaEncoder();
+    encoder.usageKeyframe(usage(1L, 10.0, 50.0));
+    assertEquals(Record.create(1).slot("timestamp", 2L), encoder.usageDelta(usage(2L, 10.0, 50.0)));
+    // Still a delta against the keyframe, not the whole payload
+    assertEquals(Record.create(2).slot("timestamp", 3L).slot("memory", 60.0),
+                 encoder.usageDelta(usage(3L, 10.0, 60.0)));
+  }
+
+  @Test
+  public void dropsChangesWithinTheDeadband() {
+    final DeltaEncoder encoder = new DeltaEncoder().absolute("cpu", 1.0).relative("memory", 0.1);
+    encoder.usageKeyframe(usage(1L, 10.0, 50.0));
+    assertEquals(Record.create(1).slot("timestamp", 2L), encoder.usageDelta(usage(2L, 10.5, 54.0)));
+    // Measured against the last value sent, so small changes can't creep past the deadband
+    assertEquals(Record.create(2).slot("timestamp", 3L).slot("cpu", 11.5),
+                 encoder.usageDelta(usage(3L, 11.5, 54.0)));
+  }
+
+  @Test
+  public void marksRemovedFields() {
+    final DeltaEncoder encoder = new DeltaEncoder();
+    encoder.usageKeyframe(usage(1L, 10.0, 50.0));
+    final Value delta = encoder.usageDelta(Record.create(2).slot("timestamp", 2L).slot("cpu", 10.0));
+    assertEquals(Record.create(2).slot("timestamp", 2L).slot("memory", ValueDelta.REMOVED), delta);
+  }
+
+  @Test
+  public void roundTripsThroughMerge() {
+    final DeltaEncoder encoder = new DeltaEncoder();
+    final Value[] payloads = {
+        usage(2L, 10.0, 50.0),
+        usage(3L, 10.0, 50.0),
+        Record.create(2).slot("timestamp", 4L).slot("cpu", 30.0),
+        usage(5L, 30.0, 70.0),
+        Record.create(4).slot("timestamp", 6L).slot("cpu", 30.0).slot("memory", 70.0)
+            .slot("disk", Record.create(2).slot("read", 1.0).slot("write", 2.0)),
+        Record.create(4).slot("timestamp", 7L).slot("cpu", 30.0).slot("memory", 70.0)
+            .slot("disk", Record.create(1).slot("read", 3.0)),
+    };
+    Value server = usage(1L, 0.0, 0.0);
+    encoder.usageKeyframe(server);
+    for (Value payload : payloads) {
+      server = ValueDelta.merge(server, encoder.usageDelta(payload));
+      assertEquals(payload, server);
+    }
+  }
+
+  @Test
+  public void reportsChangedAndRemovedProcesses() {
+    final DeltaEncoder encoder = new DeltaEncoder();
+    encoder.processesKeyframe(Record.create(2)
+            .item(Record.create(2).slot("pid", 1).slot("cpu", 1.0))
+            .item(Record.create(2).slot("pid", 2).slot("cpu", 2.0)));
+    final Value delta = encoder.processesDelta(Record.create(2)
+            .item(Record.create(2).slot("pid", 1).slot("cpu", 5.0))
+            .item(Record.create(2).slot("pid", 3).slot("cpu", 3.0)), 10L);
+    assertEquals(Record.create(3)
+            .slot("timestamp", 10L)
+            .slot("changed", Record.create(2)
+                .item(Record.create(2).slot("pid", 1).slot("cpu", 5.0))
+                .item(Record.create(2).slot("pid", 3).slot("cpu", 3.0)))
+            .slot("removed", Record.create(1).item(2)), delta);
+  }
+}
@@ -0,0 +1,76 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+import swim.structure.Record;
+import swim.structure.Value;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RelayConnectionTest {
+
+  private static final int MAX_FRAME_SIZE = 1024;
+
+  private static DataInputStream input(final ByteArrayOutputStream bytes) {
+    return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+  }
+
+  @Test
+  public void readsFramesInOrder() throws IOException {
+    final Value first = Record.create(3).slot("node", "/machine/a").slot("lane", "addUsage").slot("body", 1);
+    final Value second = Record.create(3).slot("node", "/machine/b").slot("lane", "addUsage").slot("body", 2);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream output = new DataOutputStream(bytes);
+    RelayConnection.writeFrame(output, first);
+    RelayConnection.writeFrame(output, second);
+
+    final DataInputStream input = input(bytes);
+    assertEquals(first, RelayConnection.readFrame(input, MAX_FRAME_SIZE));
+    assertEquals(second, RelayConnection.readFrame(input, MAX_FRAME_SIZE));
+    assertNull(RelayConnection.readFrame(input, MAX_FRAME_SIZE));
+  }
+
+  @Test
+  public void rejectsNegativeLengths() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new DataOutputStream(bytes).writeInt(-1);
+    assertThrows(IOException.class, () -> RelayConnection.readFrame(input(bytes), MAX_FRAME_SIZE));
+  }
+
+  @Test
+  public void rejectsOversizedFrames() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream output = new DataOutputStream(bytes);
+    output.writeInt(MAX_FRAME_SIZE + 1);
+    output.write(new byte[MAX_FRAME_SIZE + 1]);
+    assertThrows(IOException.class, () -> RelayConnection.readFrame(input(bytes), MAX_FRAME_SIZE));
+  }
+
+  @Test
+  public void rejectsTruncatedFrames() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream output = new DataOutputStream(bytes);
+    output.writeInt(16);
+    output.write(new byte[4]);
+    assertThrows(IOException.class, () -> RelayConnection.readFrame(input(bytes), MAX_FRAME_SIZE));
+  }
+}
@@ -0,0 +1,130 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.client;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import swim.structure.Record;
+import swim.structure.Value;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpoolFileTest {
+
+  // The header, then one record of 4 + "{i:0}".length() bytes
+  private static final int FIRST_RECORD = 16;
+
+  @TempDir
+  Path dir;
+
+  private static Value sample(final int i) {
+    return Record.create(1).slot("i", i);
+  }
+
+  @Test
+  public void pollsValuesOldestFirst() throws IOException {
+    final SpoolFile spool = new SpoolFile(this.dir.resolve("spool"), 1024);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(spool.append(sample(i)));
+    }
+    assertEquals(5, spool.size());
+    final Record first = spool.poll(3);
+    assertEquals(3, first.length());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(sample(i), first.get(i));
+    }
+    final Record rest = spool.poll(10);
+    assertEquals(2, rest.length());
+    assertEquals(sample(3), rest.get(0));
+    assertEquals(sample(4), rest.get(1));
+    assertTrue(spool.isEmpty());
+    spool.close();
+  }
+
+  @Test
+  public void evictsOldestValuesWhenWrappingAround() throws IOException {
+    // Room for five of the nine byte records, so every append past them wraps or evicts
+    final SpoolFile spool = new SpoolFile(this.dir.resolve("spool"), FIRST_RECORD + 48);
+    for (int i = 0; i < 10; i++) {
+      assertTrue(spool.append(sample(i)));
+    }
+    final int size = spool.size();
+    assertTrue(size > 0 && size <= 5);
+    final Record values = spool.poll(size);
+    assertEquals(size, values.length());
+    for (int i = 0; i < size; i++) {
+      assertEquals(sample(10 - size + i), values.get(i));
+    }
+    assertTrue(spool.isEmpty());
+    spool.close();
+  }
+
+  @Test
+  public void rejectsValuesLargerThanTheFile() throws IOException {
+    final SpoolFile spool = new SpoolFile(this.dir.resolve("spool"), FIRST_RECORD + 8);
+    assertFalse(spool.append(sample(0)));
+    assertTrue(spool.isEmpty());
+    spool.close();
+  }
+
+  @Test
+  public void keepsValuesAcrossReopening() throws IOException {
+    final Path path = this.dir.resolve("spool");
+    final SpoolFile spool = new SpoolFile(path, 1024);
+    spool.append(sample(0));
+    spool.append(sample(1));
+    spool.close();
+
+    final SpoolFile reopened = new SpoolFile(path, 1024);
+    assertEquals(2, reopened.size());
+    final Record values = reopened.poll(2);
+    assertEquals(sample(0), values.get(0));
+    assertEquals(sample(1), values.get(1));
+    reopened.close();
+  }
+
+  @Test
+  public void refusesToShareTheFile() throws IOException {
+    final Path path = this.dir.resolve("spool");
+    final SpoolFile spool = new SpoolFile(path, 1024);
+    assertThrows(IOException.class, () -> new SpoolFile(path, 1024));
+    spool.close();
+  }
+
+  @Test
+  public void discardsCorruptRecords() throws IOException {
+    final Path path = this.dir.resolve("spool");
+    final SpoolFile spool = new SpoolFile(path, 1024);
+    spool.append(sample(0));
+    spool.append(sample(1));
+    spool.close();
+    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+      file.seek(FIRST_RECORD);
+      file.writeInt(Integer.MAX_VALUE);
+    }
+
+    final SpoolFile reopened = new SpoolFile(path, 1024);
+    assertEquals(0, reopened.poll(2).length());
+    assertTrue(reopened.isEmpty());
+    assertTrue(reopened.append(sample(2)));
+    assertEquals(sample(2), reopened.poll(1).get(0));
+    reopened.close();
+  }
+}
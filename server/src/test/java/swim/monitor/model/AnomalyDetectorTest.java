@@ -0,0 +1,59 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import org.junit.jupiter.api.Test;
+import swim.structure.Value;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AnomalyDetectorTest {
+
+  private final AnomalyDetector detector = new AnomalyDetector(new String[] {"load"}, 0.1, 5, 4.0);
+
+  private double observe(final long timestamp, final double value) {
+    this.detector.startSample();
+    return this.detector.observe(0, timestamp, value);
+  }
+
+  @Test
+  public void raisesAndClearsAlerts() {
+    for (int i = 0; i < 50; i++) {
+      observe(i, i % 2 == 0 ? 9.0 : 11.0);
+      assertFalse(this.detector.didRaise(0));
+    }
+    assertTrue(observe(50L, 100.0) >= 4.0);
+    assertTrue(this.detector.didRaise(0));
+
+    observe(51L, 10.0);
+    assertTrue(this.detector.didClear(0));
+  }
+
+  @Test
+  public void reportsTheBaselineBeforeTheAnomaly() {
+    for (int i = 0; i < 50; i++) {
+      observe(i, i % 2 == 0 ? 9.0 : 11.0);
+    }
+    observe(50L, 100.0);
+    final Value alert = this.detector.alert(0);
+    assertEquals(50L, alert.get("timestamp").longValue());
+    assertEquals(100.0, alert.get("value").doubleValue());
+    // Folding the anomaly in first would have pulled the mean to about 19
+    final double mean = alert.get("mean").doubleValue();
+    assertTrue(mean > 9.0 && mean < 11.0);
+    assertEquals(alert.get("score").doubleValue(), (100.0 - mean) / alert.get("deviation").doubleValue(), 1.0e-9);
+  }
+}
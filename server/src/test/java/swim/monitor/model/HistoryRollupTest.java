@@ -0,0 +1,98 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import org.junit.jupiter.api.Test;
+import swim.structure.Record;
+import swim.structure.Value;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HistoryRollupTest {
+
+  private static final HistorySchema SCHEMA = new HistorySchema()
+          .column("load", HistorySchema.Type.DOUBLE)
+          .column("charging", HistorySchema.Type.BOOLEAN);
+  private static final long MINUTE = 60000L;
+
+  private final StatusHistoryBuffer history = new StatusHistoryBuffer(SCHEMA, 64);
+  private final HistoryRollup rollup = new HistoryRollup(SCHEMA, MINUTE, 8);
+
+  private boolean add(final long timestamp, final double load) {
+    this.history.put(timestamp, Record.create(2).slot("load", load).slot("charging", true));
+    return this.rollup.add(timestamp, this.history, this.history.indexOf(timestamp));
+  }
+
+  private static Value bucket(final int count, final double min, final double max, final double avg) {
+    return Record.create(2)
+            .slot("count", count)
+            .slot("load", Record.create(3).slot("min", (float) min).slot("max", (float) max).slot("avg", (float) avg));
+  }
+
+  @Test
+  public void closesBucketWhenTheNextStarts() {
+    assertFalse(add(0L, 1.0));
+    assertFalse(add(30000L, 3.0));
+    assertEquals(0, this.rollup.size());
+
+    assertTrue(add(MINUTE, 5.0));
+    assertEquals(0L, this.rollup.closedTimestamp());
+    assertEquals(bucket(2, 1.0, 3.0, 2.0), this.rollup.get(0L));
+  }
+
+  @Test
+  public void closesBucketOnTime() {
+    assertEquals(Long.MAX_VALUE, this.rollup.closeTime());
+    add(0L, 1.0);
+    add(30000L, 3.0);
+    assertEquals(MINUTE, this.rollup.closeTime());
+
+    assertTrue(this.rollup.close());
+    assertEquals(0L, this.rollup.closedTimestamp());
+    assertEquals(bucket(2, 1.0, 3.0, 2.0), this.rollup.get(0L));
+    assertEquals(Long.MAX_VALUE, this.rollup.closeTime());
+    assertFalse(this.rollup.close());
+
+    // The next bucket still opens and closes normally
+    assertFalse(add(MINUTE, 4.0));
+    assertTrue(add(2L * MINUTE, 6.0));
+    assertEquals(MINUTE, this.rollup.closedTimestamp());
+    assertEquals(bucket(1, 4.0, 4.0, 4.0), this.rollup.get(MINUTE));
+  }
+
+  @Test
+  public void amendsClosedBuckets() {
+    add(0L, 1.0);
+    add(30000L, 3.0);
+    this.rollup.close();
+
+    assertTrue(add(45000L, 5.0));
+    assertEquals(0L, this.rollup.closedTimestamp());
+    assertEquals(bucket(3, 1.0, 5.0, 3.0), this.rollup.get(0L));
+  }
+
+  @Test
+  public void insertsBucketsForLateSamplesOfMissingOnes() {
+    add(2L * MINUTE, 1.0);
+    add(3L * MINUTE, 2.0);
+
+    assertTrue(add(MINUTE + 1000L, 7.0));
+    assertEquals(MINUTE, this.rollup.closedTimestamp());
+    assertEquals(bucket(1, 7.0, 7.0, 7.0), this.rollup.get(MINUTE));
+    assertEquals(bucket(1, 1.0, 1.0, 1.0), this.rollup.get(2L * MINUTE));
+    assertEquals(2, this.rollup.size());
+  }
+}
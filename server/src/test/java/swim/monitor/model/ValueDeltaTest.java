@@ -0,0 +1,64 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.model;
+
+import org.junit.jupiter.api.Test;
+import swim.structure.Num;
+import swim.structure.Record;
+import swim.structure.Value;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ValueDeltaTest {
+
+  @Test
+  public void mergesNestedFields() {
+    final Value base = Record.create(2)
+            .slot("cpu", 10.0)
+            .slot("disk", Record.create(2).slot("read", 1.0).slot("write", 2.0));
+    final Value delta = Record.create(2)
+            .slot("disk", Record.create(1).slot("write", 4.0))
+            .slot("memory", 50.0);
+    assertEquals(Record.create(3)
+            .slot("cpu", 10.0)
+            .slot("disk", Record.create(2).slot("read", 1.0).slot("write", 4.0))
+            .slot("memory", 50.0), ValueDelta.merge(base, delta));
+  }
+
+  @Test
+  public void dropsRemovedFields() {
+    final Value base = Record.create(2)
+            .slot("cpu", 10.0)
+            .slot("disk", Record.create(2).slot("read", 1.0).slot("write", 2.0));
+    final Value delta = Record.create(2)
+            .slot("cpu", ValueDelta.REMOVED)
+            .slot("disk", Record.create(1).slot("read", ValueDelta.REMOVED));
+    assertEquals(Record.create(1).slot("disk", Record.create(1).slot("write", 2.0)),
+                 ValueDelta.merge(base, delta));
+  }
+
+  @Test
+  public void ignoresRemovalsOfMissingFields() {
+    final Value delta = Record.create(2).slot("cpu", 10.0).slot("memory", ValueDelta.REMOVED);
+    assertEquals(Record.create(1).slot("cpu", 10.0), ValueDelta.merge(Record.create(1).slot("cpu", 5.0), delta));
+    // A receiver that lost its state, e.g. after a restart
+    assertEquals(Record.create(1).slot("cpu", 10.0), ValueDelta.merge(Value.absent(), delta));
+  }
+
+  @Test
+  public void replacesNonRecordValues() {
+    assertEquals(Num.from(2.0), ValueDelta.merge(Num.from(1.0), Num.from(2.0)));
+    assertEquals(Num.from(2.0), ValueDelta.merge(Record.create(1).slot("cpu", 1.0), Num.from(2.0)));
+  }
+}
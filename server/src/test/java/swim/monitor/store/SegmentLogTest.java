@@ -0,0 +1,136 @@
+// Copyright 2015-2023 Swim.inc
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package swim.monitor.store;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import swim.structure.Record;
+import swim.structure.Value;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class SegmentLogTest {
+
+  @TempDir
+  Path dir;
+
+  private static Value record(final int i) {
+    return Record.create(1).slot("i", i);
+  }
+
+  private static SegmentLog open(final Path path, final long compactionThreshold,
+                                 final Supplier<Iterator<Value>> snapshot) {
+    return new SegmentLog(path, compactionThreshold, snapshot, e -> fail(e), () -> { });
+  }
+
+  private static List<Value> load(final Path path) {
+    final List<Value> records = new ArrayList<>();
+    open(path, Long.MAX_VALUE, null).load(records::add);
+    return records;
+  }
+
+  @Test
+  public void loadsAppendedRecords() {
+    final Path path = this.dir.resolve("lane.log");
+    final SegmentLog log = open(path, Long.MAX_VALUE, null);
+    log.append(record(0));
+    log.append(record(1));
+    log.close();
+    assertEquals(Arrays.asList(record(0), record(1)), load(path));
+  }
+
+  @Test
+  public void truncatesTornTail() throws IOException {
+    final Path path = this.dir.resolve("lane.log");
+    final SegmentLog log = open(path, Long.MAX_VALUE, null);
+    log.append(record(0));
+    log.append(record(1));
+    log.close();
+    final long size = Files.size(path);
+    // A crash midway through the next record
+    try (DataOutputStream output = new DataOutputStream(new FileOutputStream(path.toFile(), true))) {
+      output.writeInt(100);
+      output.write("{i:".getBytes(StandardCharsets.UTF_8));
+    }
+
+    assertEquals(Arrays.asList(record(0), record(1)), load(path));
+    assertEquals(size, Files.size(path));
+  }
+
+  @Test
+  public void truncatesAtCorruptLength() throws IOException {
+    final Path path = this.dir.resolve("lane.log");
+    final SegmentLog log = open(path, Long.MAX_VALUE, null);
+    log.append(record(0));
+    log.close();
+    final long size = Files.size(path);
+    try (DataOutputStream output = new DataOutputStream(new FileOutputStream(path.toFile(), true))) {
+      output.writeInt(-1);
+      output.write(new byte[16]);
+    }
+
+    assertEquals(Arrays.asList(record(0)), load(path));
+    assertEquals(size, Files.size(path));
+  }
+
+  @Test
+  public void appendsAfterRecovery() throws IOException {
+    final Path path = this.dir.resolve("lane.log");
+    final SegmentLog log = open(path, Long.MAX_VALUE, null);
+    log.append(record(0));
+    log.close();
+    try (DataOutputStream output = new DataOutputStream(new FileOutputStream(path.toFile(), true))) {
+      output.writeInt(100);
+    }
+
+    final SegmentLog recovered = open(path, Long.MAX_VALUE, null);
+    recovered.load(record -> { });
+    recovered.append(record(1));
+    recovered.close();
+    assertEquals(Arrays.asList(record(0), record(1)), load(path));
+  }
+
+  @Test
+  public void compactsToSnapshot() throws IOException {
+    final Path path = this.dir.resolve("lane.log");
+    final List<Value> lane = new ArrayList<>();
+    final SegmentLog log = open(path, 64L, () -> lane.iterator());
+    // Only the latest record of the lane is live; every append supersedes the last
+    for (int i = 0; i < 100; i++) {
+      lane.clear();
+      lane.add(record(i));
+      log.append(record(i));
+    }
+    log.close();
+
+    final List<Value> records = load(path);
+    assertEquals(record(99), records.get(records.size() - 1));
+    // Rewritten from the snapshot at least once, so well short of all 100 records
+    assertTrue(records.size() < 100);
+    assertTrue(Files.size(path) <= 2L * 64L + 16L);
+  }
+}